@@ -0,0 +1,60 @@
+package org.digitalmind.buildingblocks.security.hmac.benchmark;
+
+import org.digitalmind.buildingblocks.security.hmac.config.HmacConfig;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacAlgorithm;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrl;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacUrlProperties;
+import org.digitalmind.buildingblocks.security.hmac.service.impl.HmacServiceImpl;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Deterministic inputs shared by the benchmarks.
+ */
+public final class HmacBenchmarkFixtures {
+    public static final String CONTEXT = "benchmark";
+    public static final String SECRET = "8f1d2c6a0b5e4f7a9c3d1e2f4a6b8c0d";
+    public static final String BASE = "https://downloads.example.com/files";
+    public static final String FRAGMENT = "content";
+    //a fixed temporal mark so that every run hashes the same messages, with a ttl keeping the urls valid
+    public static final long TIMESTAMP = 1577836800000L;
+    public static final long TIME_TO_LIVE = 100L * 365 * HmacUrl.FIELD_HMAC_TTL_1DAY;
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 -_.*/:&=";
+
+    private HmacBenchmarkFixtures() {
+    }
+
+    public static Map<String, Object> fields(int fieldCount, int valueLength) {
+        Random random = new Random(fieldCount * 31L + valueLength);
+        Map<String, Object> fields = new HashMap<>();
+        for (int i = 0; i < fieldCount; i++) {
+            StringBuilder value = new StringBuilder(valueLength);
+            for (int j = 0; j < valueLength; j++) {
+                value.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            fields.put("field-" + i, value.toString());
+        }
+        fields.put(HmacUrl.FIELD_HMAC_TIMESTAMP, new Date(TIMESTAMP));
+        fields.put(HmacUrl.FIELD_HMAC_TTL, TIME_TO_LIVE);
+        return fields;
+    }
+
+    public static HmacServiceImpl service(HmacAlgorithm algorithm, String encoding) {
+        HmacConfig config = new HmacConfig();
+        config.setEnabled(true);
+        config.setDefaultName(CONTEXT);
+        config.setConfig(Collections.singletonList(new HmacUrlProperties(CONTEXT, true, SECRET, algorithm, encoding)));
+        return new HmacServiceImpl(config);
+    }
+
+    public static HmacUrl.HmacUrlBuilder builder(HmacAlgorithm algorithm, String encoding) {
+        return HmacUrl.builder()
+                .secret(SECRET)
+                .algorithm(algorithm)
+                .encoding(encoding);
+    }
+}
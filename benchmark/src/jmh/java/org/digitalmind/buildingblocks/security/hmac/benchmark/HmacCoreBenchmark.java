@@ -0,0 +1,57 @@
+package org.digitalmind.buildingblocks.security.hmac.benchmark;
+
+import org.digitalmind.buildingblocks.security.hmac.core.Hmac;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacAlgorithm;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrl;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacSignExcception;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+
+/**
+ * Benchmarks of the static building blocks in {@link Hmac}.
+ */
+@State(Scope.Benchmark)
+public class HmacCoreBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int fieldCount;
+
+    @Param({"8", "64", "512"})
+    public int valueLength;
+
+    @Param({"HmacMD5", "HmacSHA1", "HmacSHA256"})
+    public HmacAlgorithm algorithm;
+
+    @Param({"UTF-8", "ISO-8859-1"})
+    public String encoding;
+
+    private Map<String, Object> fields;
+    private String queryString;
+
+    @Setup
+    public void setup() throws HmacFieldException {
+        this.fields = HmacBenchmarkFixtures.fields(this.fieldCount, this.valueLength);
+        this.queryString = Hmac.toQueryString(this.fields, this.encoding, HmacUrl.URL_VALUE_DELIMITER, HmacUrl.URL_ITEM_DELIMITER);
+    }
+
+    @Benchmark
+    public String create() throws HmacSignExcception {
+        return Hmac.create(HmacBenchmarkFixtures.SECRET, this.encoding, this.algorithm.getAlgorithm(), this.queryString);
+    }
+
+    @Benchmark
+    public String toQueryString() throws HmacFieldException {
+        return Hmac.toQueryString(this.fields, this.encoding, HmacUrl.URL_VALUE_DELIMITER, HmacUrl.URL_ITEM_DELIMITER);
+    }
+
+    @Benchmark
+    public Map<String, Object> toFields() throws HmacFieldException {
+        return Hmac.toFields(this.queryString, this.encoding, HmacUrl.URL_VALUE_DELIMITER, HmacUrl.URL_ITEM_DELIMITER);
+    }
+}
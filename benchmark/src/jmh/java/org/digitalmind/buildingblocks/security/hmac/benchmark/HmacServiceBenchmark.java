@@ -0,0 +1,84 @@
+package org.digitalmind.buildingblocks.security.hmac.benchmark;
+
+import org.digitalmind.buildingblocks.security.hmac.core.HmacAlgorithm;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrl;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlTemplate;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacSignExcception;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacUrlExpiredException;
+import org.digitalmind.buildingblocks.security.hmac.service.impl.HmacServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Benchmarks of {@link HmacServiceImpl}, the service is shared by all benchmark threads
+ * the same way it is shared by request threads in an application.
+ */
+@State(Scope.Benchmark)
+public class HmacServiceBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int fieldCount;
+
+    @Param({"8", "64", "512"})
+    public int valueLength;
+
+    @Param({"HmacMD5", "HmacSHA1", "HmacSHA256"})
+    public HmacAlgorithm algorithm;
+
+    @Param({"UTF-8", "ISO-8859-1"})
+    public String encoding;
+
+    private HmacServiceImpl service;
+    private Map<String, Object> fields;
+    private String url;
+    private String tokenUrl;
+    private HmacUrlTemplate template;
+    private Map<String, Object> variableFields;
+
+    @Setup
+    public void setup() throws HmacFieldException, HmacSignExcception {
+        this.service = HmacBenchmarkFixtures.service(this.algorithm, this.encoding);
+        this.fields = HmacBenchmarkFixtures.fields(this.fieldCount, this.valueLength);
+        this.url = calculateUrl();
+        this.tokenUrl = calculateTokenUrl();
+        //the shared fields are fixed, the temporal mark and an object id vary per url
+        Map<String, Object> fixedFields = new HashMap<>(this.fields);
+        this.variableFields = new HashMap<>();
+        this.variableFields.put(HmacUrl.FIELD_HMAC_TIMESTAMP, fixedFields.remove(HmacUrl.FIELD_HMAC_TIMESTAMP));
+        this.variableFields.put(HmacUrl.FIELD_HMAC_TTL, fixedFields.remove(HmacUrl.FIELD_HMAC_TTL));
+        this.variableFields.put("object-id", "0123456789");
+        this.template = this.service.createUrlTemplate(HmacBenchmarkFixtures.CONTEXT, fixedFields, null, HmacBenchmarkFixtures.BASE, HmacBenchmarkFixtures.FRAGMENT);
+    }
+
+    @Benchmark
+    public String calculateUrl() throws HmacFieldException, HmacSignExcception {
+        return this.service.calculateUrl(HmacBenchmarkFixtures.CONTEXT, this.fields, null, HmacBenchmarkFixtures.BASE, HmacBenchmarkFixtures.FRAGMENT);
+    }
+
+    @Benchmark
+    public String calculateTemplateUrl() throws HmacFieldException, HmacSignExcception {
+        return this.service.calculateUrl(this.template, this.variableFields);
+    }
+
+    @Benchmark
+    public String calculateTokenUrl() throws HmacFieldException, HmacSignExcception {
+        return this.service.calculateTokenUrl(HmacBenchmarkFixtures.CONTEXT, this.fields, HmacBenchmarkFixtures.BASE, HmacBenchmarkFixtures.FRAGMENT);
+    }
+
+    @Benchmark
+    public boolean validateTokenUrl() throws HmacFieldException, HmacSignExcception {
+        return this.service.verifyTokenUrl(HmacBenchmarkFixtures.CONTEXT, this.tokenUrl).isValid();
+    }
+
+    @Benchmark
+    public boolean validateUrl() throws HmacFieldException, HmacSignExcception, HmacUrlExpiredException {
+        return this.service.validateUrl(HmacBenchmarkFixtures.CONTEXT, this.url, null, false);
+    }
+}
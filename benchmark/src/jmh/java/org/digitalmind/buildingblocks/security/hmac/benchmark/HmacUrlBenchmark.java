@@ -0,0 +1,59 @@
+package org.digitalmind.buildingblocks.security.hmac.benchmark;
+
+import org.digitalmind.buildingblocks.security.hmac.core.HmacAlgorithm;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacSignExcception;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacUrlExpiredException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+
+/**
+ * Benchmarks of {@link org.digitalmind.buildingblocks.security.hmac.core.HmacUrl},
+ * a new instance is built for every operation as HmacUrl keeps the state of the last url.
+ */
+@State(Scope.Benchmark)
+public class HmacUrlBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int fieldCount;
+
+    @Param({"8", "64", "512"})
+    public int valueLength;
+
+    @Param({"HmacMD5", "HmacSHA1", "HmacSHA256"})
+    public HmacAlgorithm algorithm;
+
+    @Param({"UTF-8", "ISO-8859-1"})
+    public String encoding;
+
+    private Map<String, Object> fields;
+    private String url;
+
+    @Setup
+    public void setup() throws HmacFieldException, HmacSignExcception {
+        this.fields = HmacBenchmarkFixtures.fields(this.fieldCount, this.valueLength);
+        this.url = calculateUrl();
+    }
+
+    @Benchmark
+    public String calculateUrl() throws HmacFieldException, HmacSignExcception {
+        return HmacBenchmarkFixtures.builder(this.algorithm, this.encoding)
+                .fields(this.fields)
+                .base(HmacBenchmarkFixtures.BASE)
+                .fragment(HmacBenchmarkFixtures.FRAGMENT)
+                .build()
+                .calculateUrl();
+    }
+
+    @Benchmark
+    public boolean validateUrl() throws HmacFieldException, HmacSignExcception, HmacUrlExpiredException {
+        return HmacBenchmarkFixtures.builder(this.algorithm, this.encoding)
+                .build()
+                .validateUrl(this.url, false);
+    }
+}
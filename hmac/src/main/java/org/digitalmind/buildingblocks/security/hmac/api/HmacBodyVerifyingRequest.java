@@ -0,0 +1,304 @@
+package org.digitalmind.buildingblocks.security.hmac.api;
+
+import org.digitalmind.buildingblocks.security.hmac.core.Hmac;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacKey;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlStatus;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacSignExcception;
+
+import javax.crypto.Mac;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Request whose body is hashed while it is read, no copy of the body is kept.
+ * The hmac is compared with the presented one as soon as the declared content length has been read,
+ * before the last bytes are handed to the caller, a chunked body is read one chunk ahead for the same purpose.
+ * The outcome is published as the {@link #STATUS_ATTRIBUTE} request attribute and
+ * a body with a bad signature fails the read with an {@link IOException}, so parsers stopping after their last token
+ * never get the end of a forged body. Non-blocking reads of a chunked body are only verified at its end.
+ * Form bodies are parsed into parameters by the container, bypassing this stream, {@link HmacSignedBodyFilter} refuses them.
+ * The Mac of the key is held from the first read to the end of the body or to {@link #close()}.
+ */
+public class HmacBodyVerifyingRequest extends HttpServletRequestWrapper implements AutoCloseable {
+    public static final String STATUS_ATTRIBUTE = HmacBodyVerifyingRequest.class.getName() + ".status";
+    private static final int DRAIN_BUFFER_SIZE = 8 * 1024;
+    private static final int READ_AHEAD_BUFFER_SIZE = 8 * 1024;
+
+    private final HmacKey key;
+    private final byte[] presented;
+    private Mac mac;
+    private HmacUrlStatus status;
+    private VerifyingInputStream inputStream;
+    private BufferedReader reader;
+
+    /**
+     * @param request   the request carrying the signed body
+     * @param key       the key which signed the body
+     * @param presented the presented raw hmac
+     */
+    public HmacBodyVerifyingRequest(HttpServletRequest request, HmacKey key, byte[] presented) {
+        super(request);
+        this.key = key;
+        this.presented = presented;
+    }
+
+    /**
+     * @return the outcome of the verification, null while the body has not been read to its end
+     */
+    public HmacUrlStatus getStatus() {
+        return this.status;
+    }
+
+    public boolean isCompleted() {
+        return this.status != null;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+        if (this.inputStream == null) {
+            this.inputStream = new VerifyingInputStream(super.getInputStream(), getContentLengthLong());
+        }
+        return this.inputStream;
+    }
+
+    @Override
+    public BufferedReader getReader() throws IOException {
+        if (this.reader == null) {
+            String encoding = getCharacterEncoding();
+            Charset charset = (encoding != null) ? Charset.forName(encoding) : StandardCharsets.ISO_8859_1;
+            this.reader = new BufferedReader(new InputStreamReader(getInputStream(), charset));
+        }
+        return this.reader;
+    }
+
+    /**
+     * Reads the part of the body left unread by the handler, so that the verification completes.
+     *
+     * @return the outcome of the verification
+     */
+    public HmacUrlStatus drain() throws IOException {
+        if (this.status == null) {
+            ServletInputStream input = getInputStream();
+            byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+            try {
+                while (input.read(buffer, 0, buffer.length) >= 0) {
+                    //the bytes are only hashed
+                }
+            } catch (HmacBodySignatureException exception) {
+                //the status is already set
+            }
+        }
+        return this.status;
+    }
+
+    /**
+     * Gives the Mac back to its key when the body was not read to its end.
+     */
+    @Override
+    public void close() {
+        if (this.mac != null) {
+            this.mac.reset();
+            this.key.releaseMac(this.mac);
+            this.mac = null;
+        }
+    }
+
+    private void update(byte[] bytes, int offset, int length) throws IOException {
+        mac().update(bytes, offset, length);
+    }
+
+    private void update(int b) throws IOException {
+        mac().update((byte) b);
+    }
+
+    private Mac mac() throws IOException {
+        if (this.mac == null) {
+            try {
+                this.mac = this.key.acquireMac();
+            } catch (HmacSignExcception exception) {
+                throw new IOException("Unable to verify the body signature", exception);
+            }
+        }
+        return this.mac;
+    }
+
+    private void complete() throws IOException {
+        if (this.status != null) {
+            if (!this.status.isValid()) {
+                throw new HmacBodySignatureException("Invalid body signature");
+            }
+            return;
+        }
+        byte[] expected = mac().doFinal();
+        close();
+        this.status = Hmac.isEqual(expected, this.presented) ? HmacUrlStatus.VALID : HmacUrlStatus.INVALID_SIGNATURE;
+        setAttribute(STATUS_ATTRIBUTE, this.status);
+        if (!this.status.isValid()) {
+            throw new HmacBodySignatureException("Invalid body signature");
+        }
+    }
+
+    /**
+     * Failure of a body read when the end of the body is reached with a bad signature.
+     */
+    public static class HmacBodySignatureException extends IOException {
+        public HmacBodySignatureException(String message) {
+            super(message);
+        }
+    }
+
+    private final class VerifyingInputStream extends ServletInputStream {
+        private final ServletInputStream delegate;
+        //the declared length of the body, -1 for a chunked body
+        private final long contentLength;
+        private long count;
+        //a chunked body is read one chunk ahead, the current chunk is handed over once the next one or the end is known
+        private byte[] current;
+        private int currentStart;
+        private int currentEnd;
+        private byte[] ahead;
+        private int aheadEnd = -1;
+        private boolean ended;
+        private boolean nonBlocking;
+
+        private VerifyingInputStream(ServletInputStream delegate, long contentLength) {
+            this.delegate = delegate;
+            this.contentLength = contentLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (isPassThrough()) {
+                int b = this.delegate.read();
+                if (b < 0) {
+                    complete();
+                } else {
+                    update(b);
+                    counted(1);
+                }
+                return b;
+            }
+            byte[] single = new byte[1];
+            return (readAhead(single, 0, 1) < 0) ? -1 : (single[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (isPassThrough()) {
+                int read = this.delegate.read(bytes, offset, length);
+                if (read < 0) {
+                    complete();
+                } else if (read > 0) {
+                    update(bytes, offset, read);
+                    counted(read);
+                }
+                return read;
+            }
+            return readAhead(bytes, offset, length);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return buffered() + this.delegate.available();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return isPassThrough() ? this.delegate.isFinished() : (this.ended && buffered() == 0);
+        }
+
+        @Override
+        public boolean isReady() {
+            return buffered() > 0 || this.delegate.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            this.nonBlocking = true;
+            this.delegate.setReadListener(readListener);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.delegate.close();
+        }
+
+        /**
+         * A body of known length is verified when its last byte is read, a non-blocking read must not read ahead.
+         */
+        private boolean isPassThrough() {
+            return this.contentLength >= 0 || (this.nonBlocking && buffered() == 0);
+        }
+
+        private void counted(int read) throws IOException {
+            this.count += read;
+            if (this.contentLength >= 0 && this.count >= this.contentLength) {
+                complete();
+            }
+        }
+
+        private int buffered() {
+            return (this.currentEnd - this.currentStart) + Math.max(this.aheadEnd, 0);
+        }
+
+        private int readAhead(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (this.current == null) {
+                this.current = new byte[READ_AHEAD_BUFFER_SIZE];
+                this.ahead = new byte[READ_AHEAD_BUFFER_SIZE];
+            }
+            if (this.currentStart == this.currentEnd) {
+                if (this.aheadEnd > 0) {
+                    byte[] chunk = this.current;
+                    this.current = this.ahead;
+                    this.ahead = chunk;
+                    this.currentStart = 0;
+                    this.currentEnd = this.aheadEnd;
+                    this.aheadEnd = -1;
+                } else if (this.ended) {
+                    complete();
+                    return -1;
+                } else {
+                    int read = fill(this.current);
+                    if (read < 0) {
+                        return -1;
+                    }
+                    this.currentStart = 0;
+                    this.currentEnd = read;
+                }
+            }
+            if (this.aheadEnd < 0 && !this.ended && !this.nonBlocking) {
+                //the end of the body verifies it before its last chunk is handed over
+                this.aheadEnd = fill(this.ahead);
+            }
+            int read = Math.min(length, this.currentEnd - this.currentStart);
+            System.arraycopy(this.current, this.currentStart, bytes, offset, read);
+            this.currentStart += read;
+            return read;
+        }
+
+        private int fill(byte[] buffer) throws IOException {
+            int read;
+            do {
+                read = this.delegate.read(buffer, 0, buffer.length);
+            } while (read == 0);
+            if (read < 0) {
+                this.ended = true;
+                complete();
+            } else {
+                update(buffer, 0, read);
+            }
+            return read;
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+package org.digitalmind.buildingblocks.security.hmac.api;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a controller or a handler method whose requests must carry a valid signature.
+ * The request parameters are verified by {@link HmacSignedRequestInterceptor} before the handler is invoked.
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmacSigned {
+
+    /**
+     * @return the name of the hmac context, the default context when empty
+     */
+    String value() default "";
+
+    /**
+     * @return the parameters excepted from the signature besides the context defaults
+     */
+    String[] exceptedFields() default {};
+}
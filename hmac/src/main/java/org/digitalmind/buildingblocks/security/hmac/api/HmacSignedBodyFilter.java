@@ -0,0 +1,132 @@
+package org.digitalmind.buildingblocks.security.hmac.api;
+
+import lombok.extern.slf4j.Slf4j;
+import org.digitalmind.buildingblocks.security.hmac.core.Hmac;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacContext;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacKey;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlStatus;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacBodyProperties;
+import org.digitalmind.buildingblocks.security.hmac.service.HmacService;
+import org.springframework.http.MediaType;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Verifies the signature of request bodies while the handlers read them, as sent by webhooks.
+ * The request is wrapped in a {@link HmacBodyVerifyingRequest} hashing the body as it is read,
+ * the handler sees a read failure before it gets the last bytes of a body with a bad signature.
+ * Requests without a well formed signature or with an unknown key get a 403 response at once,
+ * a body left unread by the handler is read to its end after the handler. Form and multipart bodies get a 415 response,
+ * the container parses them into request parameters without going through the verifying stream.
+ * A bad signature then turns into a 403 response, or into a failure of the request once the response is committed.
+ * Requests matching no path pattern are passed through.
+ */
+@Slf4j
+public class HmacSignedBodyFilter extends OncePerRequestFilter {
+    private final HmacService hmacService;
+    private final List<HmacBodyProperties> bodies;
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+    public HmacSignedBodyFilter(HmacService hmacService, List<HmacBodyProperties> bodies) {
+        this.hmacService = hmacService;
+        this.bodies = (bodies != null) ? bodies : Collections.emptyList();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return findBody(request) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        HmacBodyProperties body = findBody(request);
+        HmacContext context = this.hmacService.getHmacContext(body.getContext());
+        if (isFormContent(request)) {
+            log.debug("Rejected signed body {}: form content type {}", request.getRequestURI(), request.getContentType());
+            context.audit(HmacUrlStatus.REJECTED, request.getRequestURI());
+            response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Signed bodies cannot be forms");
+            return;
+        }
+        byte[] presented = Hmac.decode(request.getHeader(body.getSignatureHeader()));
+        HmacKey key = context.getKey(request.getHeader(body.getKeyIdHeader()));
+        if (presented == null || presented.length != context.getMacLength() || key == null || key.isRetired(context.getClock().millis())) {
+            log.debug("Rejected signed body {}: missing or malformed signature or unknown key", request.getRequestURI());
+            context.audit(HmacUrlStatus.REJECTED, request.getRequestURI());
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "Invalid signed request");
+            return;
+        }
+
+        try (HmacBodyVerifyingRequest verifyingRequest = new HmacBodyVerifyingRequest(request, key, presented)) {
+            if (request.getContentLengthLong() == 0 && !drain(verifyingRequest).isValid()) {
+                //an empty body is verified before the handler
+                log.debug("Rejected signed body {}: {}", request.getRequestURI(), verifyingRequest.getStatus());
+                context.audit(HmacUrlStatus.INVALID_SIGNATURE, request.getRequestURI());
+                response.sendError(HttpServletResponse.SC_FORBIDDEN, "Invalid signed request");
+                return;
+            }
+            filterChain.doFilter(verifyingRequest, response);
+            //a handler reading the body saw a bad signature before its end, else the body is verified now
+            boolean verifiedByHandler = verifyingRequest.isCompleted();
+            HmacUrlStatus status = drain(verifyingRequest);
+            if (status.isValid()) {
+                return;
+            }
+            log.debug("Rejected signed body {}: {}", request.getRequestURI(), status);
+            context.audit(status, request.getRequestURI());
+            if (!response.isCommitted()) {
+                response.resetBuffer();
+                response.sendError(HttpServletResponse.SC_FORBIDDEN, "Invalid signed request");
+            } else if (!verifiedByHandler) {
+                throw new ServletException("The signed body of " + request.getRequestURI() + " was answered before its signature was found invalid");
+            }
+        }
+    }
+
+    private static HmacUrlStatus drain(HmacBodyVerifyingRequest verifyingRequest) {
+        try {
+            HmacUrlStatus status = verifyingRequest.drain();
+            return (status != null) ? status : HmacUrlStatus.INVALID_SIGNATURE;
+        } catch (IOException exception) {
+            //a body which cannot be read to its end is not verified
+            return HmacUrlStatus.INVALID_SIGNATURE;
+        }
+    }
+
+    /**
+     * @return true for the url encoded and multipart forms, read through the request parameters and parts
+     */
+    protected boolean isFormContent(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.trim().toLowerCase(Locale.ROOT);
+        return type.startsWith(MediaType.APPLICATION_FORM_URLENCODED_VALUE) || type.startsWith("multipart/");
+    }
+
+    protected HmacBodyProperties findBody(HttpServletRequest request) {
+        if (this.bodies.isEmpty()) {
+            return null;
+        }
+        String lookupPath = this.urlPathHelper.getLookupPathForRequest(request);
+        for (HmacBodyProperties body : this.bodies) {
+            if (this.pathMatcher.match(body.getPattern(), lookupPath)) {
+                return body;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,190 @@
+package org.digitalmind.buildingblocks.security.hmac.api;
+
+import lombok.extern.slf4j.Slf4j;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacContext;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlParser;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlStatus;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlVerification;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacPathProperties;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacException;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
+import org.digitalmind.buildingblocks.security.hmac.service.HmacService;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Validates signed requests from their query string, before the controllers are invoked.
+ * The context is taken from the {@link HmacSigned} annotation of the handler or else from the first matching path pattern,
+ * requests matching neither are passed through. Rejected requests, including requests repeating a parameter
+ * or carrying a parameter outside the query string, get a 403 response,
+ * the verification of an accepted request is published as the {@link #VERIFICATION_ATTRIBUTE} request attribute
+ * and its fields as the {@link #FIELDS_ATTRIBUTE} request attribute.
+ * Requests are verified on behalf of their client, the remote address or the value of the client id header,
+ * a client throttled by the context gets a 429 response.
+ */
+@Slf4j
+public class HmacSignedRequestInterceptor implements HandlerInterceptor {
+    public static final String VERIFICATION_ATTRIBUTE = HmacSignedRequestInterceptor.class.getName() + ".verification";
+    public static final String FIELDS_ATTRIBUTE = HmacSignedRequestInterceptor.class.getName() + ".fields";
+
+    private final HmacService hmacService;
+    private final List<HmacPathProperties> paths;
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+    private final String clientIdHeader;
+
+    public HmacSignedRequestInterceptor(HmacService hmacService, List<HmacPathProperties> paths) {
+        this(hmacService, paths, null);
+    }
+
+    public HmacSignedRequestInterceptor(HmacService hmacService, List<HmacPathProperties> paths, String clientIdHeader) {
+        this.hmacService = hmacService;
+        this.paths = (paths != null) ? paths : Collections.emptyList();
+        this.clientIdHeader = (clientIdHeader != null && !clientIdHeader.isEmpty()) ? clientIdHeader : null;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        String context;
+        Set<String> exceptedFields;
+        HmacSigned signed = (handler instanceof HandlerMethod) ? findAnnotation((HandlerMethod) handler) : null;
+        if (signed != null) {
+            context = signed.value();
+            exceptedFields = (signed.exceptedFields().length > 0) ? new HashSet<>(Arrays.asList(signed.exceptedFields())) : null;
+        } else {
+            HmacPathProperties path = findPath(request);
+            if (path == null) {
+                return true;
+            }
+            context = path.getContext();
+            exceptedFields = path.getExceptedFields();
+        }
+
+        if (hasRepeatedParameter(request)) {
+            log.debug("Rejected signed request {}: repeated parameter", request.getRequestURI());
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "Invalid signed request");
+            return false;
+        }
+        HmacUrlVerification verification;
+        try {
+            Map<String, Object> fields = toFields(request, context);
+            if (hasUnsignedParameter(request, fields)) {
+                log.debug("Rejected signed request {}: parameter outside the query string", request.getRequestURI());
+                response.sendError(HttpServletResponse.SC_FORBIDDEN, "Invalid signed request");
+                return false;
+            }
+            verification = this.hmacService.verifyFields(context, fields, exceptedFields, getClientId(request));
+        } catch (HmacException exception) {
+            log.debug("Rejected signed request {}: {}", request.getRequestURI(), exception.getMessage());
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "Invalid signed request");
+            return false;
+        }
+        if (verification.getStatus() == HmacUrlStatus.THROTTLED) {
+            log.debug("Throttled signed request {}", request.getRequestURI());
+            response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Too many invalid signed requests");
+            return false;
+        }
+        if (!verification.isValid()) {
+            log.debug("Rejected signed request {}: {}", request.getRequestURI(), verification.getStatus());
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "Invalid signed request");
+            return false;
+        }
+        request.setAttribute(VERIFICATION_ATTRIBUTE, verification);
+        request.setAttribute(FIELDS_ATTRIBUTE, verification.getFields());
+        return true;
+    }
+
+    protected HmacSigned findAnnotation(HandlerMethod handlerMethod) {
+        HmacSigned signed = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getMethod(), HmacSigned.class);
+        if (signed == null) {
+            signed = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getBeanType(), HmacSigned.class);
+        }
+        return signed;
+    }
+
+    protected HmacPathProperties findPath(HttpServletRequest request) {
+        if (this.paths.isEmpty()) {
+            return null;
+        }
+        String lookupPath = this.urlPathHelper.getLookupPathForRequest(request);
+        for (HmacPathProperties path : this.paths) {
+            if (this.pathMatcher.match(path.getPattern(), lookupPath)) {
+                return path;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The client id header is only trusted when set by a proxy in front of the application,
+     * a value sent by the client itself lets a forging client escape the throttling by changing it.
+     *
+     * @return the client id header of the request when configured and present, else the remote address
+     */
+    protected String getClientId(HttpServletRequest request) {
+        String clientId = (this.clientIdHeader != null) ? request.getHeader(this.clientIdHeader) : null;
+        return (clientId != null && !clientId.isEmpty()) ? clientId : request.getRemoteAddr();
+    }
+
+    /**
+     * Controllers read the first value of a repeated parameter, or all of them joined, while a single value is signed,
+     * so a request repeating any parameter, in its query string or its form body, is never accepted.
+     */
+    protected boolean hasRepeatedParameter(HttpServletRequest request) {
+        for (String[] values : request.getParameterMap().values()) {
+            if (values != null && values.length > 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Controllers read their parameters from the servlet parameter map, which also holds the parameters of a form body,
+     * so a request is only accepted when every parameter is a query field with the same value.
+     *
+     * @param fields the fields parsed from the query string
+     * @return true when a parameter is missing from the query fields or has another value
+     */
+    protected boolean hasUnsignedParameter(HttpServletRequest request, Map<String, Object> fields) {
+        for (Map.Entry<String, String[]> entry : request.getParameterMap().entrySet()) {
+            Object field = fields.get(entry.getKey());
+            String[] values = entry.getValue();
+            if (field == null || values == null || values.length != 1 || !field.equals(values[0])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses the fields from the query string only, the parameters of a form body are not signed.
+     */
+    protected Map<String, Object> toFields(HttpServletRequest request, String context) throws HmacFieldException {
+        String query = request.getQueryString();
+        if (query == null || query.isEmpty()) {
+            return new HashMap<>();
+        }
+        HmacContext hmacContext = this.hmacService.getHmacContext(context);
+        Charset charset = (hmacContext != null) ? hmacContext.getCharset() : StandardCharsets.UTF_8;
+        return HmacUrlParser.parseFields(query, 0, query.length(), charset, '=', '&', new HashMap<>());
+    }
+
+}
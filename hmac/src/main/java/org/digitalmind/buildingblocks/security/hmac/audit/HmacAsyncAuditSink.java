@@ -0,0 +1,153 @@
+package org.digitalmind.buildingblocks.security.hmac.audit;
+
+import lombok.extern.slf4j.Slf4j;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Audit sink handing the events to a background thread through a bounded lock free ring buffer.
+ * Validating threads claim a slot with a single compare and set and never wait,
+ * an event finding the buffer full is dropped and counted.
+ * The drain thread writes the events in batches and sleeps for the flush interval when the buffer is empty.
+ */
+@Slf4j
+public class HmacAsyncAuditSink implements HmacAuditSink, AutoCloseable {
+    private final HmacAuditWriter writer;
+    private final AtomicReferenceArray<HmacAuditEvent> ring;
+    private final int mask;
+    private final int batchSize;
+    private final int maxUrlLength;
+    private final long flushIntervalNanos;
+    //next slot to be claimed by a producer
+    private final AtomicLong tail = new AtomicLong();
+    //next slot to be read by the drain thread, only written by it
+    private volatile long head;
+    private final LongAdder drops = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+    private final Thread drainThread;
+    private volatile boolean running = true;
+
+    /**
+     * @param writer              the destination of the events
+     * @param capacity            the number of buffered events, rounded up to a power of two
+     * @param batchSize           the maximum number of events per write
+     * @param flushIntervalMillis the pause of the drain thread when the buffer is empty
+     * @param maxUrlLength        the maximum number of url characters kept in an event
+     */
+    public HmacAsyncAuditSink(HmacAuditWriter writer, int capacity, int batchSize, long flushIntervalMillis, int maxUrlLength) {
+        this.writer = writer;
+        int length = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.ring = new AtomicReferenceArray<>(length);
+        this.mask = length - 1;
+        this.batchSize = Math.max(batchSize, 1);
+        this.maxUrlLength = maxUrlLength;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(flushIntervalMillis, 1));
+        this.drainThread = new Thread(this::drainLoop, "hmac-audit");
+        this.drainThread.setDaemon(true);
+        this.drainThread.start();
+    }
+
+    @Override
+    public void record(long timestamp, String context, HmacUrlStatus status, String url) {
+        HmacAuditEvent event = null;
+        while (true) {
+            long t = this.tail.get();
+            if (t - this.head > this.mask) {
+                this.drops.increment();
+                return;
+            }
+            if (event == null) {
+                event = HmacAuditEvent.of(timestamp, context, status, url, this.maxUrlLength);
+            }
+            if (this.tail.compareAndSet(t, t + 1)) {
+                //the drain thread waits for the slot to be published
+                this.ring.lazySet((int) (t & this.mask), event);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long getDropCount() {
+        return this.drops.sum();
+    }
+
+    public long getWriteErrorCount() {
+        return this.writeErrors.sum();
+    }
+
+    /**
+     * @return the number of events waiting to be written
+     */
+    public int getPending() {
+        return (int) (this.tail.get() - this.head);
+    }
+
+    private void drainLoop() {
+        List<HmacAuditEvent> batch = new ArrayList<>(this.batchSize);
+        while (this.running) {
+            if (drain(batch) == 0) {
+                LockSupport.parkNanos(this, this.flushIntervalNanos);
+            }
+        }
+        //the events recorded before the close are still written
+        while (drain(batch) > 0) {
+        }
+    }
+
+    private int drain(List<HmacAuditEvent> batch) {
+        long h = this.head;
+        long available = this.tail.get();
+        while (h < available && batch.size() < this.batchSize) {
+            int index = (int) (h & this.mask);
+            HmacAuditEvent event = this.ring.get(index);
+            if (event == null) {
+                //claimed but not yet published
+                break;
+            }
+            this.ring.lazySet(index, null);
+            batch.add(event);
+            h++;
+        }
+        this.head = h;
+        int size = batch.size();
+        if (size > 0) {
+            try {
+                this.writer.write(batch);
+            } catch (IOException | RuntimeException exception) {
+                this.writeErrors.increment();
+                log.warn("Unable to write {} hmac audit events: {}", size, exception.getMessage());
+            }
+            batch.clear();
+        }
+        return size;
+    }
+
+    /**
+     * Stops the drain thread once the buffered events are written and closes the writer.
+     */
+    @Override
+    public void close() {
+        this.running = false;
+        LockSupport.unpark(this.drainThread);
+        try {
+            this.drainThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            this.writer.close();
+        } catch (IOException exception) {
+            log.warn("Unable to close the hmac audit writer: {}", exception.getMessage());
+        }
+    }
+
+}
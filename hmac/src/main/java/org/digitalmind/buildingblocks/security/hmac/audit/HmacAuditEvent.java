@@ -0,0 +1,32 @@
+package org.digitalmind.buildingblocks.security.hmac.audit;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlStatus;
+
+/**
+ * Immutable record of a rejected signed url.
+ */
+@Getter
+@AllArgsConstructor
+public class HmacAuditEvent {
+    private final long timestamp;
+    private final String context;
+    private final HmacUrlStatus status;
+    private final String url;
+
+    /**
+     * Creates an event with the url cut to the given length, so that attack bursts of huge urls stay small.
+     *
+     * @param timestamp    the time of the validation in milliseconds since the epoch
+     * @param context      the name of the hmac context
+     * @param status       the outcome of the validation
+     * @param url          the signed url, may be null when only fields were validated
+     * @param maxUrlLength the maximum number of url characters kept
+     * @return the event
+     */
+    public static HmacAuditEvent of(long timestamp, String context, HmacUrlStatus status, String url, int maxUrlLength) {
+        String truncated = (url != null && url.length() > maxUrlLength) ? url.substring(0, maxUrlLength) : url;
+        return new HmacAuditEvent(timestamp, context, status, truncated);
+    }
+}
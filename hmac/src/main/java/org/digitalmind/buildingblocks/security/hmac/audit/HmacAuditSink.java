@@ -0,0 +1,34 @@
+package org.digitalmind.buildingblocks.security.hmac.audit;
+
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlStatus;
+
+/**
+ * Receiver of the rejected signed urls, called on the validating thread.
+ * Implementations must not block, the {@link #NOOP} instance is used when auditing is disabled.
+ */
+public interface HmacAuditSink {
+
+    HmacAuditSink NOOP = new HmacAuditSink() {
+        @Override
+        public void record(long timestamp, String context, HmacUrlStatus status, String url) {
+        }
+
+        @Override
+        public long getDropCount() {
+            return 0;
+        }
+    };
+
+    /**
+     * @param timestamp the time of the validation in milliseconds since the epoch
+     * @param context   the name of the hmac context
+     * @param status    the outcome of the validation
+     * @param url       the signed url or token, null when only fields were validated
+     */
+    void record(long timestamp, String context, HmacUrlStatus status, String url);
+
+    /**
+     * @return the number of events dropped because the sink could not keep up
+     */
+    long getDropCount();
+}
@@ -0,0 +1,15 @@
+package org.digitalmind.buildingblocks.security.hmac.audit;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination of the audit events, called by the single drain thread of {@link HmacAsyncAuditSink}.
+ */
+public interface HmacAuditWriter extends AutoCloseable {
+
+    void write(List<HmacAuditEvent> events) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,119 @@
+package org.digitalmind.buildingblocks.security.hmac.audit;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Writes audit events as tab separated lines to a local file, rolled over by size.
+ * The rolled files are named file.1 (the newest) to file.N, the oldest one is deleted.
+ * Line: ISO-8601 timestamp, context, status, url.
+ */
+public class HmacRollingFileAuditWriter implements HmacAuditWriter {
+    private final Path file;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private Writer out;
+    private long size;
+
+    /**
+     * @param file        the active audit file
+     * @param maxFileSize the size after which the file is rolled over
+     * @param maxFiles    the number of rolled files kept
+     */
+    public HmacRollingFileAuditWriter(Path file, long maxFileSize, int maxFiles) {
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+    }
+
+    @Override
+    public void write(List<HmacAuditEvent> events) throws IOException {
+        if (this.out == null) {
+            open();
+        }
+        StringBuilder line = new StringBuilder(256);
+        for (HmacAuditEvent event : events) {
+            line.setLength(0);
+            DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(event.getTimestamp()), line);
+            line.append('\t').append(event.getContext())
+                    .append('\t').append(event.getStatus())
+                    .append('\t');
+            appendEscaped(line, event.getUrl());
+            line.append('\n');
+            this.out.write(line.toString());
+            //the urls are ascii once escaped, the size is counted in chars
+            this.size += line.length();
+        }
+        this.out.flush();
+        if (this.size >= this.maxFileSize) {
+            roll();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.out != null) {
+            this.out.close();
+            this.out = null;
+        }
+    }
+
+    private void open() throws IOException {
+        Path parent = this.file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(this.file,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE), StandardCharsets.UTF_8));
+        this.size = Files.size(this.file);
+    }
+
+    private void roll() throws IOException {
+        close();
+        if (this.maxFiles > 0) {
+            Files.deleteIfExists(rolled(this.maxFiles));
+            for (int i = this.maxFiles - 1; i >= 1; i--) {
+                Path source = rolled(i);
+                if (Files.exists(source)) {
+                    Files.move(source, rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(this.file, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(this.file);
+        }
+    }
+
+    private Path rolled(int index) {
+        return this.file.resolveSibling(this.file.getFileName() + "." + index);
+    }
+
+    /**
+     * Keeps an event on a single printable line, control and non ascii characters of hostile urls are escaped.
+     */
+    private static void appendEscaped(StringBuilder line, String url) {
+        if (url == null) {
+            line.append('-');
+            return;
+        }
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c < 0x20 || c >= 0x7F || c == '\\') {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+    }
+
+}
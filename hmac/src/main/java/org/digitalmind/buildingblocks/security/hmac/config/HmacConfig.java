@@ -2,6 +2,8 @@ package org.digitalmind.buildingblocks.security.hmac.config;
 
 import lombok.Getter;
 import lombok.Setter;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacApiProperties;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacAuditProperties;
 import org.digitalmind.buildingblocks.security.hmac.dto.HmacUrlProperties;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -24,4 +26,9 @@ public class HmacConfig {
     private boolean enabled;
     private String defaultName;
     private List<HmacUrlProperties> config = new ArrayList<HmacUrlProperties>();
+    private int batchParallelism;
+    private int batchChunkSize = 256;
+    private long clockResolutionMillis;
+    private HmacApiProperties api = new HmacApiProperties();
+    private HmacAuditProperties audit = new HmacAuditProperties();
 }
@@ -0,0 +1,37 @@
+package org.digitalmind.buildingblocks.security.hmac.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.digitalmind.buildingblocks.security.hmac.metrics.HmacEndpoint;
+import org.digitalmind.buildingblocks.security.hmac.metrics.HmacMetrics;
+import org.digitalmind.buildingblocks.security.hmac.metrics.MicrometerHmacMetrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnEnabledEndpoint;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import static org.digitalmind.buildingblocks.security.hmac.config.HmacModuleConfig.ENABLED;
+import static org.digitalmind.buildingblocks.security.hmac.config.HmacModuleConfig.METRICS_ENABLED;
+
+@Configuration
+@ConditionalOnProperty(name = {ENABLED, METRICS_ENABLED}, havingValue = "true")
+@ConditionalOnClass(MeterRegistry.class)
+public class HmacMetricsConfig {
+
+    /**
+     * The registry is looked up when the bean is created rather than with a bean condition,
+     * which is evaluated before the actuator auto-configuration registers the registry.
+     */
+    @Bean
+    public HmacMetrics hmacMetrics(ObjectProvider<MeterRegistry> registry) {
+        MeterRegistry meterRegistry = registry.getIfAvailable();
+        return (meterRegistry != null) ? new MicrometerHmacMetrics(meterRegistry) : HmacMetrics.NOOP;
+    }
+
+    @Bean
+    @ConditionalOnEnabledEndpoint
+    public HmacEndpoint hmacEndpoint(HmacConfig config, HmacMetrics metrics) {
+        return new HmacEndpoint(config, metrics);
+    }
+}
@@ -7,6 +7,7 @@ import org.springframework.context.annotation.Configuration;
 
 @Configuration
 @ComponentScan({
+        HmacModuleConfig.CONFIG_PACKAGE,
         HmacModuleConfig.SERVICE_PACKAGE
 })
 @ConditionalOnProperty(name = HmacModuleConfig.ENABLED, havingValue = "true")
@@ -15,8 +16,9 @@ public class HmacModuleConfig {
     public static final String PREFIX = "application.modules.common." + MODULE;
     public static final String ENABLED = PREFIX + ".enabled";
     public static final String API_ENABLED = PREFIX + ".api.enabled";
+    public static final String METRICS_ENABLED = PREFIX + ".metrics.enabled";
 
-    public static final String ROOT_PACKAGE = "org.digitalmind.buildingblocks.security.hmac." + MODULE;
+    public static final String ROOT_PACKAGE = "org.digitalmind.buildingblocks.security." + MODULE;
     public static final String CONFIG_PACKAGE = ROOT_PACKAGE + ".config";
     public static final String SERVICE_PACKAGE = ROOT_PACKAGE + ".service";
     public static final String API_PACKAGE = ROOT_PACKAGE + ".api";
@@ -0,0 +1,48 @@
+package org.digitalmind.buildingblocks.security.hmac.config;
+
+import org.digitalmind.buildingblocks.security.hmac.api.HmacSignedBodyFilter;
+import org.digitalmind.buildingblocks.security.hmac.api.HmacSignedRequestInterceptor;
+import org.digitalmind.buildingblocks.security.hmac.service.HmacService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import static org.digitalmind.buildingblocks.security.hmac.config.HmacModuleConfig.API_ENABLED;
+import static org.digitalmind.buildingblocks.security.hmac.config.HmacModuleConfig.ENABLED;
+
+@Configuration
+@ConditionalOnProperty(name = {ENABLED, API_ENABLED}, havingValue = "true")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class HmacWebConfig implements WebMvcConfigurer {
+    private final HmacConfig config;
+    private final HmacService hmacService;
+    private final HmacSignedRequestInterceptor interceptor;
+
+    public HmacWebConfig(HmacConfig config, HmacService hmacService) {
+        this.config = config;
+        this.hmacService = hmacService;
+        this.interceptor = new HmacSignedRequestInterceptor(hmacService, config.getApi().getPaths(), config.getApi().getClientIdHeader());
+    }
+
+    @Bean
+    public FilterRegistrationBean<HmacSignedBodyFilter> hmacSignedBodyFilter() {
+        FilterRegistrationBean<HmacSignedBodyFilter> registration = new FilterRegistrationBean<>(
+                new HmacSignedBodyFilter(this.hmacService, this.config.getApi().getBodies()));
+        registration.setEnabled(!this.config.getApi().getBodies().isEmpty());
+        return registration;
+    }
+
+    @Bean
+    public HmacSignedRequestInterceptor hmacSignedRequestInterceptor() {
+        return this.interceptor;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(this.interceptor);
+    }
+}
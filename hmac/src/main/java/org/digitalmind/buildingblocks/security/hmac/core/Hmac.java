@@ -5,19 +5,22 @@ import org.digitalmind.buildingblocks.security.hmac.exception.HmacSignExcception
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
-import javax.xml.bind.DatatypeConverter;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.regex.Pattern;
 
 public class Hmac {
+    /**
+     * @deprecated SimpleDateFormat is not thread safe, use {@link HmacTimestampCodec#getDefault()} instead
+     */
+    @Deprecated
     public static SimpleDateFormat TIMESTAMP_FORMAT = new SimpleDateFormat("yyyyMMddHHmmss");
     private static final String HEXES = "0123456789abcdef";
 
@@ -25,6 +28,15 @@ public class Hmac {
                                                final String encoding,
                                                final String valueDelimiter,
                                                final String itemDelimiter) throws HmacFieldException {
+        if (valueDelimiter.length() == 1 && itemDelimiter.length() == 1) {
+            final Charset charset;
+            try {
+                charset = Charset.forName(encoding);
+            } catch (final IllegalArgumentException exception) {
+                throw new HmacFieldException("Unsupported Decoding Exception for encoding: " + encoding, exception);
+            }
+            return HmacUrlParser.parseFields(values, 0, values.length(), charset, valueDelimiter.charAt(0), itemDelimiter.charAt(0), new HashMap<>());
+        }
         Map<String, Object> fields = new HashMap<>();
         String itemDelimiterPattern = Pattern.quote(itemDelimiter);
         String valueDelimiterPattern = Pattern.quote(valueDelimiter);
@@ -52,7 +64,7 @@ public class Hmac {
         String valueString = null;
         if (value != null) {
             if (value instanceof Date) {
-                valueString = TIMESTAMP_FORMAT.format(value);
+                valueString = HmacTimestampCodec.getDefault().format(((Date) value).getTime());
             } else {
                 valueString = String.valueOf(value);
             }
@@ -64,11 +76,7 @@ public class Hmac {
         Date valueDate = null;
         if (value != null) {
             if (value instanceof String) {
-                try {
-                    valueDate = TIMESTAMP_FORMAT.parse((String) value);
-                } catch (ParseException exception) {
-                    throw new HmacFieldException("Unable to parse " + value + " to date", exception);
-                }
+                valueDate = new Date(HmacTimestampCodec.getDefault().parse((String) value));
             } else {
                 valueDate = (Date) value;
             }
@@ -99,7 +107,7 @@ public class Hmac {
                                        Set<String> exceptedFields) throws HmacFieldException {
         StringBuffer queryString = new StringBuffer();
         //Note that the fields must be sorted by field names when constructing the message to be signed
-        Map<String, Object> sortedFields = new TreeMap<String, Object>(fields);
+        Map<String, Object> sortedFields = (fields instanceof HmacFields) ? fields : new TreeMap<String, Object>(fields);
         for (Map.Entry<String, Object> entry : sortedFields.entrySet()) {
             if (exceptedFields == null || !exceptedFields.contains(entry.getKey())) {
                 try {
@@ -127,12 +135,43 @@ public class Hmac {
         return toQueryString(fields, encoding, valueDelimiter, itemDelimiter, null);
     }
 
+    /**
+     * Builds the query string of the fields with the charset and the canonicalization plans of a context,
+     * a known schema only has its values encoded. The result is the same as
+     * {@link #toQueryString(Map, String, String, String, Set)} with the context encoding.
+     */
+    public static String toQueryString(final HmacContext context,
+                                       Map<String, Object> fields,
+                                       final String valueDelimiter,
+                                       final String itemDelimiter,
+                                       Set<String> exceptedFields) throws HmacFieldException {
+        HmacCanonicalPlans plans = context.getCanonicalPlans(exceptedFields);
+        HmacCanonicalPlans.Plan plan = (plans != null) ? plans.get(fields, valueDelimiter, itemDelimiter, exceptedFields) : null;
+        if (plan == null) {
+            return toQueryString(fields, context.getEncoding(), valueDelimiter, itemDelimiter, exceptedFields);
+        }
+        StringBuilder queryString = new StringBuilder(plan.size() * 32);
+        for (int i = 0; i < plan.size(); i++) {
+            queryString.append(plan.prefixStrings[i]);
+            String value = plan.valueAt(fields, i);
+            if (value == null) {
+                throw new HmacFieldException("Missing value for field code: " + plan.nameAt(i));
+            }
+            try {
+                queryString.append(URLEncoder.encode(value, context.getEncoding()));
+            } catch (final UnsupportedEncodingException exception) {
+                throw new HmacFieldException("Unsupported Encoding Exception  for field value: " + value, exception);
+            }
+        }
+        return queryString.append(plan.trailerString).toString();
+    }
+
     /**
      * Converts the hash generated by the mac.doFinal method
      * to match the result of hmac generated via hash_hmac PHP function
      * this method must be used only if the 4th parameter of the hash_hmac was set to false
      * in case of calling hash_hmac with the 4th parameter set to true then
-     * hmac value must be obtained by calling DatatypeConverter.printBase64Binary instead of the getHex method
+     * hmac value must be obtained by calling Base64 encoding instead of the getHex method
      *
      * @param raw the hasg calculated using mac.doFinal method
      * @return returns a hmac using the same method as the equivalent php function
@@ -164,12 +203,28 @@ public class Hmac {
                                 final String encoding,
                                 final String algorithm,
                                 final String message) throws HmacSignExcception {
+        return encode(createRaw(secret, encoding, algorithm, message));
+    }
+
+    /**
+     * Converts a string message into the raw bytes of a HMAC hash based upon the provided
+     * password, encoding charset and algorithm.
+     *
+     * @param secret    the password used for hashing
+     * @param encoding  the charset encoding for hashing
+     * @param algorithm the algorithm to be used during hashing
+     * @param message   the string to be hashed with the specify algorithm
+     * @return returns the hash bytes of the message
+     */
+    public static byte[] createRaw(final String secret,
+                                   final String encoding,
+                                   final String algorithm,
+                                   final String message) throws HmacSignExcception {
         try {
             final SecretKeySpec signingKey = new SecretKeySpec(secret.getBytes(encoding), algorithm);
             final Mac mac = Mac.getInstance(algorithm);
             mac.init(signingKey);
-            final byte[] expectedCodeBytes = mac.doFinal(message.getBytes(encoding));
-            return DatatypeConverter.printBase64Binary(expectedCodeBytes);
+            return mac.doFinal(message.getBytes(encoding));
         } catch (final NoSuchAlgorithmException exception) {
             throw new HmacSignExcception("Unsupported Message Authentication Code (MAC) algorithm: " + algorithm, exception);
         } catch (final InvalidKeyException exception) {
@@ -181,6 +236,113 @@ public class Hmac {
         }
     }
 
+    /**
+     * Converts a string message into a HMAC hash based upon the
+     * precompiled key, charset and algorithm of a context.
+     *
+     * @param context the compiled hmac context
+     * @param message the string to be hashed with the context algorithm
+     * @return returns String with hashed message
+     */
+    public static String create(final HmacContext context,
+                                final String message) throws HmacSignExcception {
+        return encode(createRaw(context, message));
+    }
+
+    public static byte[] createRaw(final HmacContext context,
+                                   final String message) throws HmacSignExcception {
+        final HmacKey key = context.getSigningKey();
+        final Mac mac = key.acquireMac();
+        try {
+            return mac.doFinal(message.getBytes(context.getCharset()));
+        } finally {
+            key.releaseMac(mac);
+        }
+    }
+
+    /**
+     * Converts a field map into a HMAC hash based upon the precompiled key,
+     * charset and algorithm of a context. The canonical query string of the fields
+     * is streamed into the mac, the result is the same as hashing
+     * {@link #toQueryString(Map, String, String, String, Set)}.
+     *
+     * @param context        the compiled hmac context
+     * @param fields         the fields to be hashed
+     * @param valueDelimiter the delimiter between a field name and its value
+     * @param itemDelimiter  the delimiter between fields
+     * @param exceptedFields the fields left out of the hash, may be null
+     * @return returns String with hashed fields
+     */
+    public static String create(final HmacContext context,
+                                final Map<String, Object> fields,
+                                final String valueDelimiter,
+                                final String itemDelimiter,
+                                final Set<String> exceptedFields) throws HmacSignExcception, HmacFieldException {
+        return encode(createRaw(context, fields, valueDelimiter, itemDelimiter, exceptedFields));
+    }
+
+    public static byte[] createRaw(final HmacContext context,
+                                   final Map<String, Object> fields,
+                                   final String valueDelimiter,
+                                   final String itemDelimiter,
+                                   final Set<String> exceptedFields) throws HmacSignExcception, HmacFieldException {
+        final HmacKey key = context.getKey(fields);
+        if (key == null || key.isRetired(context.getClock().millis())) {
+            throw new HmacSignExcception("Unknown or retired key " + fields.get(HmacUrl.FIELD_HMAC_KID) + " for hmac context " + context.getName());
+        }
+        final Mac mac = key.acquireMac();
+        try {
+            return createRaw(mac, context, fields, valueDelimiter, itemDelimiter, exceptedFields);
+        } finally {
+            key.releaseMac(mac);
+        }
+    }
+
+    /**
+     * Converts a field map into the raw bytes of a HMAC hash using a Mac owned by the caller
+     * and the charset and canonicalization plans of a context, the Mac is left reset.
+     * The plans are only used for the default excepted fields of the context.
+     */
+    public static byte[] createRaw(final Mac mac,
+                                   final HmacContext context,
+                                   final Map<String, Object> fields,
+                                   final String valueDelimiter,
+                                   final String itemDelimiter,
+                                   final Set<String> exceptedFields) throws HmacFieldException {
+        try {
+            HmacCanonicalizer.update(mac, fields, context.getCharset(), valueDelimiter, itemDelimiter, exceptedFields, context.getCanonicalPlans(exceptedFields));
+            return mac.doFinal();
+        } finally {
+            mac.reset();
+        }
+    }
+
+    /**
+     * Converts a field map into the raw bytes of a HMAC hash using a Mac owned by the caller,
+     * the Mac is left reset and can be reused for the next hash.
+     *
+     * @param mac            an initialized Mac
+     * @param charset        the charset encoding for hashing
+     * @param fields         the fields to be hashed
+     * @param valueDelimiter the delimiter between a field name and its value
+     * @param itemDelimiter  the delimiter between fields
+     * @param exceptedFields the fields left out of the hash, may be null
+     * @return returns the hash bytes of the fields
+     */
+    public static byte[] createRaw(final Mac mac,
+                                   final Charset charset,
+                                   final Map<String, Object> fields,
+                                   final String valueDelimiter,
+                                   final String itemDelimiter,
+                                   final Set<String> exceptedFields) throws HmacFieldException {
+        try {
+            HmacCanonicalizer.update(mac, fields, charset, valueDelimiter, itemDelimiter, exceptedFields);
+            return mac.doFinal();
+        } finally {
+            mac.reset();
+        }
+    }
+
     /**
      * Validate a given hmac based on the provided
      * password, encoding charset and algorithm.
@@ -197,8 +359,132 @@ public class Hmac {
                                  final String encoding,
                                  final String algorithm,
                                  final String message) throws HmacSignExcception {
-        String hmacCalculated = create(secret, encoding, algorithm, message);
-        return hmacCalculated.equals(hmac);
+        byte[] presented = decode(hmac);
+        if (presented == null) {
+            return false;
+        }
+        return isEqual(createRaw(secret, encoding, algorithm, message), presented);
+    }
+
+    /**
+     * Validate a given hmac against a field map based on the precompiled
+     * key, charset and algorithm of a context.
+     * The presented hmac is decoded once and compared in constant time with the raw hash.
+     *
+     * @param hmac           the given hmac to be validated
+     * @param context        the compiled hmac context
+     * @param fields         the fields to be hashed
+     * @param valueDelimiter the delimiter between a field name and its value
+     * @param itemDelimiter  the delimiter between fields
+     * @param exceptedFields the fields left out of the hash, may be null
+     * @return returns true if hmac has been verified
+     */
+    public static boolean verify(final String hmac,
+                                 final HmacContext context,
+                                 final Map<String, Object> fields,
+                                 final String valueDelimiter,
+                                 final String itemDelimiter,
+                                 final Set<String> exceptedFields) throws HmacSignExcception, HmacFieldException {
+        byte[] presented = decode(hmac);
+        if (presented == null || presented.length != context.getMacLength()) {
+            return false;
+        }
+        final HmacKey key = context.getKey(fields);
+        if (key == null || key.isRetired(context.getClock().millis())) {
+            return false;
+        }
+        final Mac mac = key.acquireMac();
+        try {
+            return verifyRaw(presented, mac, context, fields, valueDelimiter, itemDelimiter, exceptedFields);
+        } finally {
+            key.releaseMac(mac);
+        }
+    }
+
+    /**
+     * Compares a presented raw hmac with the hash of a field map using a Mac owned by the caller, the Mac is left reset.
+     * The canonicalization plans of the context are only looked up,
+     * the schema of the fields is admitted to the plans once the hmac matched.
+     */
+    public static boolean verifyRaw(final byte[] presented,
+                                    final Mac mac,
+                                    final HmacContext context,
+                                    final Map<String, Object> fields,
+                                    final String valueDelimiter,
+                                    final String itemDelimiter,
+                                    final Set<String> exceptedFields) throws HmacFieldException {
+        HmacCanonicalPlans plans = HmacCanonicalizer.isStreamed(context.getCharset(), itemDelimiter) ? context.getCanonicalPlans(exceptedFields) : null;
+        HmacCanonicalPlans.Plan plan = (plans != null) ? plans.find(fields, valueDelimiter, itemDelimiter, exceptedFields) : null;
+        byte[] expected;
+        try {
+            HmacCanonicalizer.update(mac, fields, context.getCharset(), valueDelimiter, itemDelimiter, exceptedFields, plan);
+            expected = mac.doFinal();
+        } finally {
+            mac.reset();
+        }
+        boolean valid = isEqual(expected, presented);
+        if (valid && plans != null && plan == null) {
+            plans.admit(fields, valueDelimiter, itemDelimiter, exceptedFields);
+        }
+        return valid;
+    }
+
+    public static boolean verify(final String hmac,
+                                 final Mac mac,
+                                 final Charset charset,
+                                 final Map<String, Object> fields,
+                                 final String valueDelimiter,
+                                 final String itemDelimiter,
+                                 final Set<String> exceptedFields) throws HmacFieldException {
+        byte[] presented = decode(hmac);
+        if (presented == null || presented.length != mac.getMacLength()) {
+            return false;
+        }
+        return isEqual(createRaw(mac, charset, fields, valueDelimiter, itemDelimiter, exceptedFields), presented);
+    }
+
+    public static String encode(byte[] raw) {
+        return Base64.getEncoder().encodeToString(raw);
+    }
+
+    /**
+     * Decodes a Base64 hmac, only the padded form written by {@link #encode(byte[])} is accepted
+     * so that a hash has a single textual form.
+     *
+     * @param hmac the Base64 hmac
+     * @return the raw hmac bytes or null if the hmac is missing or not in canonical Base64
+     */
+    public static byte[] decode(String hmac) {
+        if (hmac == null || hmac.length() % 4 != 0) {
+            return null;
+        }
+        byte[] raw;
+        try {
+            raw = Base64.getDecoder().decode(hmac);
+        } catch (final IllegalArgumentException exception) {
+            return null;
+        }
+        //the decoder ignores the unused bits of the last character
+        return encode(raw).equals(hmac) ? raw : null;
+    }
+
+    /**
+     * Compares two hashes in a time that depends only on their length,
+     * hashes of different length are rejected at once.
+     *
+     * @param expected the calculated hash
+     * @param actual   the presented hash
+     * @return true if both hashes hold the same bytes
+     */
+    public static boolean isEqual(byte[] expected, byte[] actual) {
+        if (expected == null || actual == null || expected.length != actual.length) {
+            return false;
+        }
+        int result = 0;
+        for (int i = 0; i < expected.length; i++) {
+            result |= expected[i] ^ actual[i];
+        }
+        return result == 0;
     }
 
 }
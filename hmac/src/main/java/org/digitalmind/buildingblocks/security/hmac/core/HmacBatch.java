@@ -0,0 +1,82 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacBatchResult;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a signing or validation operation over a list of items.
+ * Large batches are split in chunks executed on a fork join pool, every chunk leases
+ * one Mac and reuses it for all of its items signed with the same key.
+ * Results are returned in input order, an item failing does not fail the batch.
+ */
+public final class HmacBatch {
+
+    private HmacBatch() {
+    }
+
+    @FunctionalInterface
+    public interface Operation<I, O> {
+        O apply(I item, HmacMacLease lease) throws HmacException;
+    }
+
+    public static <I, O> List<HmacBatchResult<O>> execute(ForkJoinPool pool,
+                                                          List<I> items,
+                                                          int chunkSize,
+                                                          Operation<I, O> operation) {
+        @SuppressWarnings("unchecked")
+        HmacBatchResult<O>[] results = new HmacBatchResult[items.size()];
+        Chunk<I, O> task = new Chunk<>(items, 0, items.size(), Math.max(chunkSize, 1), operation, results);
+        if (pool == null || items.size() <= chunkSize) {
+            task.compute();
+        } else {
+            pool.invoke(task);
+        }
+        return Arrays.asList(results);
+    }
+
+    private static class Chunk<I, O> extends RecursiveAction {
+        private final List<I> items;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+        private final Operation<I, O> operation;
+        private final HmacBatchResult<O>[] results;
+
+        Chunk(List<I> items, int from, int to, int chunkSize, Operation<I, O> operation, HmacBatchResult<O>[] results) {
+            this.items = items;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+            this.operation = operation;
+            this.results = results;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > this.chunkSize) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(
+                        new Chunk<>(this.items, this.from, middle, this.chunkSize, this.operation, this.results),
+                        new Chunk<>(this.items, middle, this.to, this.chunkSize, this.operation, this.results)
+                );
+                return;
+            }
+            try (HmacMacLease lease = new HmacMacLease()) {
+                for (int i = this.from; i < this.to; i++) {
+                    try {
+                        this.results[i] = HmacBatchResult.success(this.operation.apply(this.items.get(i), lease));
+                    } catch (HmacException | RuntimeException exception) {
+                        lease.reset();
+                        this.results[i] = HmacBatchResult.failure(exception);
+                    }
+                }
+            }
+        }
+    }
+
+}
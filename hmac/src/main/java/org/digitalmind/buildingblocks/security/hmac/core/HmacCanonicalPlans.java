@@ -0,0 +1,263 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of canonicalization plans of a hmac context, keyed by the set of field names of a message.
+ * A plan holds the sorted order of the names, the names left after the excepted fields
+ * and their url encoded form with the delimiters, so that a message with a known schema only has its values encoded.
+ * Plans are kept in a lock free open addressing table, a schema seen for the first time is signed the usual way
+ * and its plan is compiled for the next messages, once the capacity is reached no more plans are added.
+ * Verification only looks plans up, the schema of a verified message is admitted once its hmac matched,
+ * so that forged messages with made up field names cannot take the capacity.
+ */
+public class HmacCanonicalPlans {
+    private static final int MAX_PROBES = 8;
+
+    private final Charset charset;
+    private final int capacity;
+    private final AtomicReferenceArray<Plan> table;
+    private final int mask;
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param charset  the charset of the context
+     * @param capacity the maximum number of plans
+     */
+    public HmacCanonicalPlans(Charset charset, int capacity) {
+        this.charset = charset;
+        this.capacity = capacity;
+        int length = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) << 1;
+        this.table = new AtomicReferenceArray<>(length);
+        this.mask = length - 1;
+    }
+
+    /**
+     * Looks up the plan of a message being signed, compiling it for the next calls when the schema is new.
+     *
+     * @param fields         the fields of the message
+     * @param valueDelimiter the delimiter between a field name and its value
+     * @param itemDelimiter  the delimiter between fields
+     * @param exceptedFields the fields left out of the message, plans are matched on the identity of this set
+     * @return the plan or null when the schema has no plan yet
+     */
+    public Plan get(Map<String, Object> fields, String valueDelimiter, String itemDelimiter, Set<String> exceptedFields) throws HmacFieldException {
+        int hash = schemaHash(fields, valueDelimiter, itemDelimiter, exceptedFields);
+        Plan plan = find(hash, fields, valueDelimiter, itemDelimiter, exceptedFields);
+        if (plan == null && this.size.get() < this.capacity) {
+            admit(new Plan(hash, fields, this.charset, valueDelimiter, itemDelimiter, exceptedFields));
+        }
+        return plan;
+    }
+
+    /**
+     * Looks up the plan of a message being verified, a new schema is not compiled.
+     *
+     * @return the plan or null when the schema has no plan
+     */
+    public Plan find(Map<String, Object> fields, String valueDelimiter, String itemDelimiter, Set<String> exceptedFields) {
+        return find(schemaHash(fields, valueDelimiter, itemDelimiter, exceptedFields), fields, valueDelimiter, itemDelimiter, exceptedFields);
+    }
+
+    /**
+     * Compiles the plan of a message whose hmac matched, unless the schema has a plan or the capacity is reached.
+     */
+    public void admit(Map<String, Object> fields, String valueDelimiter, String itemDelimiter, Set<String> exceptedFields) throws HmacFieldException {
+        if (this.size.get() < this.capacity) {
+            admit(new Plan(schemaHash(fields, valueDelimiter, itemDelimiter, exceptedFields), fields, this.charset, valueDelimiter, itemDelimiter, exceptedFields));
+        }
+    }
+
+    public int getSize() {
+        return this.size.get();
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    private Plan find(int hash, Map<String, Object> fields, String valueDelimiter, String itemDelimiter, Set<String> exceptedFields) {
+        int index = hash & this.mask;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            Plan plan = this.table.get(index);
+            if (plan == null) {
+                break;
+            }
+            if (plan.hash == hash && plan.matches(fields, valueDelimiter, itemDelimiter, exceptedFields)) {
+                this.hits.increment();
+                return plan;
+            }
+            index = (index + 1) & this.mask;
+        }
+        this.misses.increment();
+        return null;
+    }
+
+    private void admit(Plan plan) {
+        int index = plan.hash & this.mask;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            Plan current = this.table.get(index);
+            if (current != null && current.hash == plan.hash && current.sameSchema(plan)) {
+                //compiled meanwhile by another thread
+                return;
+            }
+            if (current == null) {
+                if (this.size.incrementAndGet() > this.capacity) {
+                    this.size.decrementAndGet();
+                    return;
+                }
+                if (this.table.compareAndSet(index, null, plan)) {
+                    return;
+                }
+                this.size.decrementAndGet();
+                //the slot was taken meanwhile, it is checked again
+                probe--;
+                continue;
+            }
+            index = (index + 1) & this.mask;
+        }
+    }
+
+    /**
+     * Order independent hash of the field names, the same for a sorted and an unsorted map.
+     */
+    private static int schemaHash(Map<String, Object> fields, String valueDelimiter, String itemDelimiter, Set<String> exceptedFields) {
+        int hash = 0;
+        if (fields instanceof HmacFields) {
+            HmacFields hmacFields = (HmacFields) fields;
+            for (int i = 0; i < hmacFields.size(); i++) {
+                hash += hmacFields.nameAt(i).hashCode();
+            }
+        } else {
+            for (String name : fields.keySet()) {
+                hash += name.hashCode();
+            }
+        }
+        hash = hash * 31 + fields.size();
+        hash = hash * 31 + System.identityHashCode(exceptedFields);
+        hash = hash * 31 + valueDelimiter.hashCode();
+        hash = hash * 31 + itemDelimiter.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Compiled canonical form of a schema.
+     */
+    public static final class Plan {
+        private final int hash;
+        private final String valueDelimiter;
+        private final String itemDelimiter;
+        private final Set<String> exceptedFields;
+        //all the names of the schema in canonical order, excepted ones included
+        private final String[] names;
+        private final Set<String> nameSet;
+        //positions in names of the signed fields
+        final int[] included;
+        //encoded name and value delimiter, preceded by the item delimiter after the first field
+        final byte[][] prefixes;
+        final String[] prefixStrings;
+        //the item delimiter less its last character, as left by the query string
+        final byte[] trailer;
+        final String trailerString;
+
+        private Plan(int hash, Map<String, Object> fields, Charset charset, String valueDelimiter, String itemDelimiter, Set<String> exceptedFields) throws HmacFieldException {
+            this.hash = hash;
+            this.valueDelimiter = valueDelimiter;
+            this.itemDelimiter = itemDelimiter;
+            this.exceptedFields = exceptedFields;
+            this.names = fields.keySet().toArray(new String[fields.size()]);
+            Arrays.sort(this.names);
+            this.nameSet = new HashSet<>(Arrays.asList(this.names));
+            int count = 0;
+            int[] positions = new int[this.names.length];
+            for (int i = 0; i < this.names.length; i++) {
+                if (exceptedFields == null || !exceptedFields.contains(this.names[i])) {
+                    positions[count++] = i;
+                }
+            }
+            this.included = Arrays.copyOf(positions, count);
+            this.prefixes = new byte[count][];
+            this.prefixStrings = new String[count];
+            for (int i = 0; i < count; i++) {
+                String name = this.names[this.included[i]];
+                String prefix;
+                try {
+                    prefix = ((i > 0) ? itemDelimiter : "") + URLEncoder.encode(name, charset.name()) + valueDelimiter;
+                } catch (final UnsupportedEncodingException exception) {
+                    throw new HmacFieldException("Unsupported Encoding Exception for field code: " + name, exception);
+                }
+                this.prefixStrings[i] = prefix;
+                this.prefixes[i] = prefix.getBytes(charset);
+            }
+            this.trailerString = (count > 0 && !itemDelimiter.isEmpty()) ? itemDelimiter.substring(0, itemDelimiter.length() - 1) : "";
+            this.trailer = this.trailerString.getBytes(charset);
+        }
+
+        public int size() {
+            return this.included.length;
+        }
+
+        /**
+         * @return the name of the i-th signed field
+         */
+        public String nameAt(int i) {
+            return this.names[this.included[i]];
+        }
+
+        /**
+         * Returns the string value of the i-th signed field,
+         * a field container is read by position as its names are in the same order as the plan.
+         */
+        String valueAt(Map<String, Object> fields, int i) {
+            if (fields instanceof HmacFields) {
+                return ((HmacFields) fields).valueAsStringAt(this.included[i]);
+            }
+            return Hmac.getValueAsString(fields.get(this.names[this.included[i]]));
+        }
+
+        private boolean matches(Map<String, Object> fields, String valueDelimiter, String itemDelimiter, Set<String> exceptedFields) {
+            if (this.exceptedFields != exceptedFields
+                    || fields.size() != this.names.length
+                    || !this.valueDelimiter.equals(valueDelimiter)
+                    || !this.itemDelimiter.equals(itemDelimiter)) {
+                return false;
+            }
+            if (fields instanceof HmacFields) {
+                HmacFields hmacFields = (HmacFields) fields;
+                for (int i = 0; i < this.names.length; i++) {
+                    String name = hmacFields.nameAt(i);
+                    if (name != this.names[i] && !name.equals(this.names[i])) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return this.nameSet.containsAll(fields.keySet());
+        }
+
+        private boolean sameSchema(Plan other) {
+            return this.exceptedFields == other.exceptedFields
+                    && this.valueDelimiter.equals(other.valueDelimiter)
+                    && this.itemDelimiter.equals(other.itemDelimiter)
+                    && Arrays.equals(this.names, other.names);
+        }
+    }
+
+}
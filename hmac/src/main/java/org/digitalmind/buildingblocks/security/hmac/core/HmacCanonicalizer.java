@@ -0,0 +1,318 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
+
+import javax.crypto.Mac;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * Streams the canonical query string of a field map into a Mac.
+ * The keys and values are percent encoded straight into a reusable byte buffer,
+ * the bytes fed to the Mac are exactly the bytes of
+ * {@link Hmac#toQueryString(Map, String, String, String, Set)} in the given charset.
+ */
+public final class HmacCanonicalizer {
+    private static final int BUFFER_SIZE = 1024;
+    //room for the largest expansion of a single char, a surrogate pair percent encoded in utf-8
+    private static final int MAX_CHAR_BYTES = 12;
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final boolean[] DONT_NEED_ENCODING = new boolean[128];
+    private static final ThreadLocal<HmacCanonicalizer> LOCAL = ThreadLocal.withInitial(HmacCanonicalizer::new);
+
+    static {
+        for (int c = 'a'; c <= 'z'; c++) {
+            DONT_NEED_ENCODING[c] = true;
+        }
+        for (int c = 'A'; c <= 'Z'; c++) {
+            DONT_NEED_ENCODING[c] = true;
+        }
+        for (int c = '0'; c <= '9'; c++) {
+            DONT_NEED_ENCODING[c] = true;
+        }
+        DONT_NEED_ENCODING[' '] = true;
+        DONT_NEED_ENCODING['-'] = true;
+        DONT_NEED_ENCODING['_'] = true;
+        DONT_NEED_ENCODING['.'] = true;
+        DONT_NEED_ENCODING['*'] = true;
+    }
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private Mac mac;
+    private Charset charset;
+    private boolean utf8;
+    private int maxChar;
+    private Charset delimiterCharset;
+    private String lastDelimiter;
+    private byte[] lastDelimiterBytes;
+    private String lastDelimiter2;
+    private byte[] lastDelimiterBytes2;
+
+    private HmacCanonicalizer() {
+    }
+
+    /**
+     * Returns true if the charset can be streamed, other charsets are hashed from the query string.
+     *
+     * @param charset the charset of the message
+     * @return true for the utf-8, iso-8859-1 and us-ascii charsets
+     */
+    public static boolean isSupported(Charset charset) {
+        return StandardCharsets.UTF_8.equals(charset)
+                || StandardCharsets.ISO_8859_1.equals(charset)
+                || StandardCharsets.US_ASCII.equals(charset);
+    }
+
+    /**
+     * @return true when the message is streamed into the mac and can use a plan, else it is hashed from the query string
+     */
+    static boolean isStreamed(Charset charset, String itemDelimiter) {
+        return isSupported(charset) && !itemDelimiter.isEmpty();
+    }
+
+    /**
+     * Feeds the canonical query string of the fields into the mac.
+     *
+     * @param mac            the mac to be updated
+     * @param fields         the fields to be signed
+     * @param charset        the charset encoding of the message
+     * @param valueDelimiter the delimiter between a field name and its value
+     * @param itemDelimiter  the delimiter between fields
+     * @param exceptedFields the fields left out of the message, may be null
+     */
+    public static void update(Mac mac,
+                              Map<String, Object> fields,
+                              Charset charset,
+                              String valueDelimiter,
+                              String itemDelimiter,
+                              Set<String> exceptedFields) throws HmacFieldException {
+        update(mac, fields, charset, valueDelimiter, itemDelimiter, exceptedFields, (HmacCanonicalPlans.Plan) null);
+    }
+
+    /**
+     * Feeds the canonical query string of the fields into the mac,
+     * with the compiled plan of the field names when the plans hold one, a new schema is compiled for the next calls.
+     *
+     * @param plans the canonicalization plans of the context, may be null
+     */
+    public static void update(Mac mac,
+                              Map<String, Object> fields,
+                              Charset charset,
+                              String valueDelimiter,
+                              String itemDelimiter,
+                              Set<String> exceptedFields,
+                              HmacCanonicalPlans plans) throws HmacFieldException {
+        HmacCanonicalPlans.Plan plan = (plans != null && isStreamed(charset, itemDelimiter))
+                ? plans.get(fields, valueDelimiter, itemDelimiter, exceptedFields)
+                : null;
+        update(mac, fields, charset, valueDelimiter, itemDelimiter, exceptedFields, plan);
+    }
+
+    /**
+     * Feeds the canonical query string of the fields into the mac with a plan already looked up.
+     *
+     * @param plan the compiled plan of the field names, may be null
+     */
+    public static void update(Mac mac,
+                              Map<String, Object> fields,
+                              Charset charset,
+                              String valueDelimiter,
+                              String itemDelimiter,
+                              Set<String> exceptedFields,
+                              HmacCanonicalPlans.Plan plan) throws HmacFieldException {
+        if (!isStreamed(charset, itemDelimiter)) {
+            String message = Hmac.toQueryString(fields, charset.name(), valueDelimiter, itemDelimiter, exceptedFields);
+            mac.update(message.getBytes(charset));
+            return;
+        }
+        HmacCanonicalizer canonicalizer = LOCAL.get();
+        if (canonicalizer.mac != null) {
+            //already streaming on this thread
+            canonicalizer = new HmacCanonicalizer();
+        }
+        canonicalizer.begin(mac, charset);
+        try {
+            if (plan != null) {
+                canonicalizer.writePlan(plan, fields);
+            } else {
+                canonicalizer.writeFields(fields, valueDelimiter, itemDelimiter, exceptedFields);
+            }
+            canonicalizer.flush();
+        } finally {
+            canonicalizer.end();
+        }
+    }
+
+    private void begin(Mac mac, Charset charset) {
+        this.mac = mac;
+        this.charset = charset;
+        this.utf8 = StandardCharsets.UTF_8.equals(charset);
+        this.maxChar = StandardCharsets.US_ASCII.equals(charset) ? 0x7F : 0xFF;
+        this.position = 0;
+        if (!charset.equals(this.delimiterCharset)) {
+            this.delimiterCharset = charset;
+            this.lastDelimiter = null;
+            this.lastDelimiter2 = null;
+        }
+    }
+
+    private void end() {
+        this.mac = null;
+        this.charset = null;
+        this.position = 0;
+    }
+
+    private void writeFields(Map<String, Object> fields,
+                             String valueDelimiter,
+                             String itemDelimiter,
+                             Set<String> exceptedFields) throws HmacFieldException {
+        byte[] valueDelimiterBytes = delimiterBytes(valueDelimiter);
+        byte[] itemDelimiterBytes = delimiterBytes(itemDelimiter);
+        boolean first = true;
+        //Note that the fields must be sorted by field names when constructing the message to be signed
+        if (fields instanceof HmacFields) {
+            HmacFields hmacFields = (HmacFields) fields;
+            for (int i = 0; i < hmacFields.size(); i++) {
+                String name = hmacFields.nameAt(i);
+                if (exceptedFields == null || !exceptedFields.contains(name)) {
+                    writeField(name, hmacFields.valueAsStringAt(i), first, valueDelimiterBytes, itemDelimiterBytes);
+                    first = false;
+                }
+            }
+        } else if (fields instanceof SortedMap && ((SortedMap<String, Object>) fields).comparator() == null) {
+            for (Map.Entry<String, Object> entry : fields.entrySet()) {
+                if (exceptedFields == null || !exceptedFields.contains(entry.getKey())) {
+                    writeField(entry.getKey(), Hmac.getValueAsString(entry.getValue()), first, valueDelimiterBytes, itemDelimiterBytes);
+                    first = false;
+                }
+            }
+        } else {
+            String[] names = fields.keySet().toArray(new String[fields.size()]);
+            Arrays.sort(names);
+            for (String name : names) {
+                if (exceptedFields == null || !exceptedFields.contains(name)) {
+                    writeField(name, Hmac.getValueAsString(fields.get(name)), first, valueDelimiterBytes, itemDelimiterBytes);
+                    first = false;
+                }
+            }
+        }
+        if (!first) {
+            //the query string drops the last character of the trailing item delimiter
+            char last = itemDelimiter.charAt(itemDelimiter.length() - 1);
+            int lastLength = (!this.utf8 || last < 0x80 || Character.isSurrogate(last)) ? 1 : (last < 0x800) ? 2 : 3;
+            write(itemDelimiterBytes, itemDelimiterBytes.length - lastLength);
+        }
+    }
+
+    /**
+     * Writes the fields in the order of the plan, only the values are encoded.
+     */
+    private void writePlan(HmacCanonicalPlans.Plan plan, Map<String, Object> fields) throws HmacFieldException {
+        for (int i = 0; i < plan.size(); i++) {
+            write(plan.prefixes[i], plan.prefixes[i].length);
+            String valueString = plan.valueAt(fields, i);
+            if (valueString == null) {
+                throw new HmacFieldException("Missing value for field code: " + plan.nameAt(i));
+            }
+            writeEncoded(valueString);
+        }
+        write(plan.trailer, plan.trailer.length);
+    }
+
+    private void writeField(String name, String valueString, boolean first, byte[] valueDelimiterBytes, byte[] itemDelimiterBytes) throws HmacFieldException {
+        if (!first) {
+            write(itemDelimiterBytes, itemDelimiterBytes.length);
+        }
+        writeEncoded(name);
+        write(valueDelimiterBytes, valueDelimiterBytes.length);
+        if (valueString == null) {
+            throw new HmacFieldException("Missing value for field code: " + name);
+        }
+        writeEncoded(valueString);
+    }
+
+    private byte[] delimiterBytes(String delimiter) {
+        if (delimiter == this.lastDelimiter) {
+            return this.lastDelimiterBytes;
+        }
+        if (delimiter == this.lastDelimiter2) {
+            return this.lastDelimiterBytes2;
+        }
+        byte[] bytes = delimiter.getBytes(this.charset);
+        this.lastDelimiter2 = this.lastDelimiter;
+        this.lastDelimiterBytes2 = this.lastDelimiterBytes;
+        this.lastDelimiter = delimiter;
+        this.lastDelimiterBytes = bytes;
+        return bytes;
+    }
+
+    private void write(byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            if (this.position == BUFFER_SIZE) {
+                flush();
+            }
+            this.buffer[this.position++] = bytes[i];
+        }
+    }
+
+    /**
+     * Percent encodes a string the same way as {@link java.net.URLEncoder#encode(String, String)}.
+     */
+    private void writeEncoded(String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (this.position > BUFFER_SIZE - MAX_CHAR_BYTES) {
+                flush();
+            }
+            char c = value.charAt(i);
+            if (c < 128 && DONT_NEED_ENCODING[c]) {
+                this.buffer[this.position++] = (c == ' ') ? (byte) '+' : (byte) c;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                if (this.utf8) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(i + 1));
+                    writePercent(0xF0 | (codePoint >> 18));
+                    writePercent(0x80 | ((codePoint >> 12) & 0x3F));
+                    writePercent(0x80 | ((codePoint >> 6) & 0x3F));
+                    writePercent(0x80 | (codePoint & 0x3F));
+                } else {
+                    writePercent('?');
+                }
+                i++;
+            } else if (this.utf8) {
+                if (c < 0x80) {
+                    writePercent(c);
+                } else if (c < 0x800) {
+                    writePercent(0xC0 | (c >> 6));
+                    writePercent(0x80 | (c & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    writePercent('?');
+                } else {
+                    writePercent(0xE0 | (c >> 12));
+                    writePercent(0x80 | ((c >> 6) & 0x3F));
+                    writePercent(0x80 | (c & 0x3F));
+                }
+            } else {
+                writePercent((c <= this.maxChar) ? c : '?');
+            }
+        }
+    }
+
+    private void writePercent(int b) {
+        this.buffer[this.position++] = '%';
+        this.buffer[this.position++] = HEX[(b >> 4) & 0x0F];
+        this.buffer[this.position++] = HEX[b & 0x0F];
+    }
+
+    private void flush() {
+        if (this.position > 0) {
+            this.mac.update(this.buffer, 0, this.position);
+            this.position = 0;
+        }
+    }
+
+}
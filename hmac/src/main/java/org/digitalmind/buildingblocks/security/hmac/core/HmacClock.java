@@ -0,0 +1,16 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+/**
+ * Source of the current time for expiration checks, replay protection and caching.
+ * Tests can supply a fixed clock, services may use a {@link HmacCoarseClock} to avoid reading the system clock per request.
+ */
+@FunctionalInterface
+public interface HmacClock {
+
+    HmacClock SYSTEM = System::currentTimeMillis;
+
+    /**
+     * @return the current time in milliseconds since the epoch
+     */
+    long millis();
+}
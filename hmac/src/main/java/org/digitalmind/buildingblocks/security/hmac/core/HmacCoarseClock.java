@@ -0,0 +1,35 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clock reading a cached time refreshed by a background thread at a fixed resolution.
+ * Reading the time is a single volatile read, the time may lag behind the system clock by up to the resolution.
+ */
+public class HmacCoarseClock implements HmacClock, AutoCloseable {
+    private final ScheduledExecutorService executor;
+    private volatile long millis;
+
+    public HmacCoarseClock(long resolutionMillis) {
+        this.millis = System.currentTimeMillis();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hmac-clock");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleAtFixedRate(() -> this.millis = System.currentTimeMillis(), resolutionMillis, resolutionMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long millis() {
+        return this.millis;
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,264 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.digitalmind.buildingblocks.security.hmac.audit.HmacAuditSink;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacGuardProperties;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacKeyProperties;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacReplayProperties;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacThrottleProperties;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacUrlProperties;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacValidationCacheProperties;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacSignExcception;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable signing state of a hmac context.
+ * The secret keys, the charset and the default excepted fields are resolved once
+ * so that signing and validation only have to look up the context and the key and hash.
+ */
+@Getter
+public class HmacContext {
+    private final String name;
+    private final HmacAlgorithm algorithm;
+    private final String encoding;
+    private final Charset charset;
+    private final Set<String> exceptedFields;
+    private final HmacMacStrategy macStrategy;
+    private final int macLength;
+    @Getter(AccessLevel.NONE)
+    private final HmacKey legacyKey;
+    @Getter(AccessLevel.NONE)
+    private final Map<String, HmacKey> keys;
+    //ordered by activation, the last active key signs
+    @Getter(AccessLevel.NONE)
+    private final HmacKey[] signingKeys;
+    private final boolean expiryPreCheck;
+    private final HmacClock clock;
+    private final HmacReplayGuard replayGuard;
+    private final HmacValidationCache validationCache;
+    private final HmacCanonicalPlans canonicalPlans;
+    private final HmacAuditSink auditSink;
+    private final HmacUrlGuard urlGuard;
+    private final HmacFailureLimiter failureLimiter;
+
+    public HmacContext(HmacUrlProperties properties) throws HmacSignExcception {
+        this(properties, HmacClock.SYSTEM);
+    }
+
+    public HmacContext(HmacUrlProperties properties, HmacClock clock) throws HmacSignExcception {
+        this(properties, clock, HmacAuditSink.NOOP);
+    }
+
+    public HmacContext(HmacUrlProperties properties, HmacClock clock, HmacAuditSink auditSink) throws HmacSignExcception {
+        this.name = properties.getName();
+        this.clock = clock;
+        this.auditSink = auditSink;
+        this.expiryPreCheck = properties.isExpiryPreCheck();
+        this.algorithm = (properties.getAlgorithm() != null) ? properties.getAlgorithm() : HmacAlgorithm.HmacSHA256;
+        this.encoding = (properties.getEncoding() != null) ? properties.getEncoding() : HmacUrl.ENCODING_UTF8;
+        try {
+            this.charset = Charset.forName(this.encoding);
+        } catch (final IllegalArgumentException exception) {
+            throw new HmacSignExcception("Unsupported encoding " + this.encoding + " for hmac context " + name, exception);
+        }
+        Set<String> ef = new HashSet<>();
+        if (properties.getExceptedFields() != null) {
+            ef.addAll(properties.getExceptedFields());
+        }
+        ef.add(HmacUrl.FIELD_HMAC);
+        this.exceptedFields = Collections.unmodifiableSet(ef);
+        this.macStrategy = (properties.getMacStrategy() != null) ? properties.getMacStrategy() : HmacMacStrategy.THREAD_LOCAL;
+
+        List<HmacKey> allKeys = new ArrayList<>();
+        this.legacyKey = (properties.getSecret() != null)
+                ? compileKey(null, properties.getSecret(), null, properties.getSecretRetireAt(), properties.getMacPoolSize())
+                : null;
+        if (this.legacyKey != null) {
+            allKeys.add(this.legacyKey);
+        }
+        Map<String, HmacKey> km = new HashMap<>();
+        if (properties.getKeys() != null) {
+            for (HmacKeyProperties keyProperties : properties.getKeys()) {
+                if (keyProperties.getId() == null || keyProperties.getId().isEmpty()) {
+                    throw new HmacSignExcception("Missing key id for hmac context " + name);
+                }
+                if (km.containsKey(keyProperties.getId())) {
+                    throw new HmacSignExcception("Duplicate key id " + keyProperties.getId() + " for hmac context " + name);
+                }
+                HmacKey key = compileKey(keyProperties.getId(), keyProperties.getSecret(), keyProperties.getActiveFrom(), keyProperties.getRetireAt(), properties.getMacPoolSize());
+                km.put(key.getId(), key);
+                allKeys.add(key);
+            }
+        }
+        if (allKeys.isEmpty()) {
+            throw new HmacSignExcception("Missing secret for hmac context " + name);
+        }
+        this.keys = km;
+        //stable sort, on equal activation the configured keys win over the legacy secret
+        allKeys.sort(Comparator.comparingLong(HmacKey::getActiveFrom));
+        this.signingKeys = allKeys.toArray(new HmacKey[allKeys.size()]);
+
+        //fail fast on algorithm or key problems instead of on the first request
+        int length = 0;
+        for (HmacKey key : allKeys) {
+            Mac mac = key.acquireMac();
+            length = mac.getMacLength();
+            key.releaseMac(mac);
+        }
+        this.macLength = length;
+
+        HmacReplayProperties replay = properties.getReplay();
+        if (replay != null && replay.isEnabled()) {
+            if (replay.getBucketSeconds() <= 0 || replay.getHorizonSeconds() <= 0 || replay.getCapacity() <= 0) {
+                throw new HmacSignExcception("Invalid replay protection settings for hmac context " + name);
+            }
+            this.replayGuard = new HmacReplayGuard(replay.getBucketSeconds() * 1000, replay.getHorizonSeconds() * 1000, replay.getCapacity(), replay.getStripes());
+        } else {
+            this.replayGuard = null;
+        }
+        HmacValidationCacheProperties cache = properties.getValidationCache();
+        if (cache != null && cache.isEnabled()) {
+            //a cached url would be accepted again without reaching the replay guard
+            if (this.replayGuard != null) {
+                throw new HmacSignExcception("The validation cache cannot be enabled with replay protection for hmac context " + name);
+            }
+            if (cache.getCapacity() <= 0 || cache.getMaxAgeSeconds() <= 0) {
+                throw new HmacSignExcception("Invalid validation cache settings for hmac context " + name);
+            }
+            this.validationCache = new HmacValidationCache(cache.getCapacity(), cache.getMaxAgeSeconds() * 1000, cache.getStripes());
+        } else {
+            this.validationCache = null;
+        }
+        this.canonicalPlans = (properties.getCanonicalPlanCapacity() > 0)
+                ? new HmacCanonicalPlans(this.charset, properties.getCanonicalPlanCapacity())
+                : null;
+        HmacGuardProperties guard = properties.getGuard();
+        if (guard != null && guard.isEnabled()) {
+            if (guard.getMaxUrlLength() <= 0 || (guard.getRequiredFields() != null && guard.getRequiredFields().size() > 64)) {
+                throw new HmacSignExcception("Invalid guard settings for hmac context " + name);
+            }
+            this.urlGuard = new HmacUrlGuard(this.charset, guard.getMaxUrlLength(), this.macLength, guard.getRequiredFields());
+            HmacThrottleProperties throttle = guard.getThrottle();
+            if (throttle != null && throttle.isEnabled()) {
+                if (throttle.getCapacity() <= 0 || throttle.getRefillPerSecond() <= 0 || throttle.getMaxClients() <= 0) {
+                    throw new HmacSignExcception("Invalid throttle settings for hmac context " + name);
+                }
+                this.failureLimiter = new HmacFailureLimiter(throttle.getCapacity(), throttle.getRefillPerSecond(), throttle.getMaxClients(), throttle.getStripes());
+            } else {
+                this.failureLimiter = null;
+            }
+        } else {
+            this.urlGuard = null;
+            this.failureLimiter = null;
+        }
+    }
+
+    /**
+     * Returns the fields excluded from the signature for a call,
+     * the context defaults merged with the fields excepted by the caller.
+     *
+     * @param additionalExceptedFields the fields excepted by the caller, may be null
+     * @return the merged excepted fields
+     */
+    public Set<String> getExceptedFields(Set<String> additionalExceptedFields) {
+        if (additionalExceptedFields == null || additionalExceptedFields.isEmpty() || this.exceptedFields.containsAll(additionalExceptedFields)) {
+            return this.exceptedFields;
+        }
+        Set<String> ef = new HashSet<>(this.exceptedFields);
+        ef.addAll(additionalExceptedFields);
+        return ef;
+    }
+
+    /**
+     * Reports a rejected url to the audit sink, valid urls are not reported
+     * and neither are the urls of throttled clients, their failures were reported already.
+     *
+     * @param status the outcome of the validation
+     * @param url    the signed url or token, null when only fields were validated
+     */
+    public void audit(HmacUrlStatus status, String url) {
+        if (!status.isValid() && status != HmacUrlStatus.THROTTLED) {
+            this.auditSink.record(this.clock.millis(), this.name, status, url);
+        }
+    }
+
+    /**
+     * Returns the canonicalization plans for a call, plans are only kept for the default excepted fields of the context
+     * and for messages without excepted fields, as merged excepted fields are new sets on every call.
+     *
+     * @param exceptedFields the excepted fields of the call
+     * @return the plans or null when the call is canonicalized without plans
+     */
+    public HmacCanonicalPlans getCanonicalPlans(Set<String> exceptedFields) {
+        return (exceptedFields == null || exceptedFields == this.exceptedFields) ? this.canonicalPlans : null;
+    }
+
+    /**
+     * Returns the key signing at the current time.
+     *
+     * @return the last activated key which is not retired
+     */
+    public HmacKey getSigningKey() throws HmacSignExcception {
+        return getSigningKey(this.clock.millis());
+    }
+
+    public HmacKey getSigningKey(long now) throws HmacSignExcception {
+        for (int i = this.signingKeys.length - 1; i >= 0; i--) {
+            if (this.signingKeys[i].isActive(now)) {
+                return this.signingKeys[i];
+            }
+        }
+        throw new HmacSignExcception("No active key for hmac context " + this.name);
+    }
+
+    /**
+     * Looks up the key of a signed message by its id, urls without id use the legacy secret of the context.
+     *
+     * @param keyId the value of the hmac-kid field, may be null
+     * @return the key or null if the context has no such key
+     */
+    public HmacKey getKey(Object keyId) {
+        if (keyId == null) {
+            return this.legacyKey;
+        }
+        return this.keys.get(keyId.toString());
+    }
+
+    public HmacKey getKey(Map<String, Object> fields) {
+        return getKey(fields.get(HmacUrl.FIELD_HMAC_KID));
+    }
+
+    private HmacKey compileKey(String id, String secret, String activeFrom, String retireAt, int poolSize) throws HmacSignExcception {
+        String keyName = (id != null) ? "key " + id + " of hmac context " + this.name : "hmac context " + this.name;
+        if (secret == null) {
+            throw new HmacSignExcception("Missing secret for " + keyName);
+        }
+        SecretKeySpec keySpec;
+        try {
+            keySpec = new SecretKeySpec(secret.getBytes(this.charset), this.algorithm.getAlgorithm());
+        } catch (final IllegalArgumentException exception) {
+            throw new HmacSignExcception("Invalid secret for " + keyName, exception);
+        }
+        try {
+            long from = (activeFrom != null && !activeFrom.isEmpty()) ? HmacTimestampCodec.getDefault().parse(activeFrom) : HmacKey.UNBOUNDED_START;
+            long to = (retireAt != null && !retireAt.isEmpty()) ? HmacTimestampCodec.getDefault().parse(retireAt) : HmacKey.UNBOUNDED_END;
+            return new HmacKey(id, keySpec, from, to, this.macStrategy, poolSize);
+        } catch (HmacFieldException exception) {
+            throw new HmacSignExcception("Invalid activation window for " + keyName, exception);
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token buckets of the clients whose signed urls fail verification, keyed by a client identifier.
+ * A failure takes a token from the bucket of its client, a client whose bucket is empty is throttled until it refills.
+ * Clients without failures have no bucket, a bucket refilled to its capacity is dropped when looked at.
+ * The buckets are kept in lock striped maps, each one bounded. A full stripe makes room by evicting its least recently
+ * used client only when that bucket has refilled, a flood of new clients leaves them untracked rather than
+ * releasing the clients already throttled.
+ */
+public class HmacFailureLimiter {
+    private final double capacity;
+    private final double refillPerMilli;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder untracked = new LongAdder();
+
+    /**
+     * @param capacity        the number of failures a client may have in a burst
+     * @param refillPerSecond the number of failures forgiven per second
+     * @param maxClients      the maximum number of clients tracked
+     * @param stripes         the number of lock stripes
+     */
+    public HmacFailureLimiter(int capacity, double refillPerSecond, int maxClients, int stripes) {
+        this.capacity = capacity;
+        this.refillPerMilli = refillPerSecond / 1000;
+        int stripeCount = Integer.highestOneBit(Math.max(stripes, 1) - 1) << 1;
+        if (stripeCount == 0) {
+            stripeCount = 1;
+        }
+        this.stripeMask = stripeCount - 1;
+        this.stripes = new Stripe[stripeCount];
+        int maxStripeClients = Math.max((maxClients + stripeCount - 1) / stripeCount, 1);
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe(maxStripeClients);
+        }
+    }
+
+    /**
+     * @param clientId the identifier of the client
+     * @param now      the current time in milliseconds since the epoch
+     * @return true when the client has used up its failures and must be turned down
+     */
+    public boolean isThrottled(String clientId, long now) {
+        Stripe stripe = stripe(clientId);
+        synchronized (stripe) {
+            Bucket bucket = stripe.get(clientId);
+            if (bucket == null) {
+                return false;
+            }
+            refill(bucket, now);
+            if (bucket.tokens >= this.capacity) {
+                stripe.remove(clientId);
+                return false;
+            }
+            if (bucket.tokens < 1) {
+                this.throttled.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Takes a token from the bucket of a client whose url failed verification.
+     *
+     * @param clientId the identifier of the client
+     * @param now      the current time in milliseconds since the epoch
+     */
+    public void recordFailure(String clientId, long now) {
+        Stripe stripe = stripe(clientId);
+        synchronized (stripe) {
+            Bucket bucket = stripe.get(clientId);
+            if (bucket == null) {
+                if (stripe.size() >= stripe.maxClients && !evictEldest(stripe, now)) {
+                    this.untracked.increment();
+                    return;
+                }
+                bucket = new Bucket(this.capacity, now);
+                stripe.put(clientId, bucket);
+            } else {
+                refill(bucket, now);
+            }
+            bucket.tokens = Math.max(bucket.tokens - 1, 0);
+        }
+    }
+
+    /**
+     * @return the number of requests turned down because their client was throttled
+     */
+    public long getThrottledCount() {
+        return this.throttled.sum();
+    }
+
+    /**
+     * @return the number of clients currently tracked
+     */
+    public int getClientCount() {
+        int count = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                count += stripe.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of failures not recorded because the stripe of their client was full of failing clients
+     */
+    public long getUntrackedCount() {
+        return this.untracked.sum();
+    }
+
+    private boolean evictEldest(Stripe stripe, long now) {
+        Iterator<Bucket> iterator = stripe.values().iterator();
+        Bucket eldest = iterator.next();
+        refill(eldest, now);
+        if (eldest.tokens < this.capacity) {
+            return false;
+        }
+        iterator.remove();
+        return true;
+    }
+
+    private void refill(Bucket bucket, long now) {
+        if (now > bucket.updated) {
+            bucket.tokens = Math.min(this.capacity, bucket.tokens + (now - bucket.updated) * this.refillPerMilli);
+            bucket.updated = now;
+        }
+    }
+
+    private Stripe stripe(String clientId) {
+        int hash = clientId.hashCode();
+        return this.stripes[(hash ^ (hash >>> 16)) & this.stripeMask];
+    }
+
+    private static class Bucket {
+        private double tokens;
+        private long updated;
+
+        Bucket(double tokens, long updated) {
+            this.tokens = tokens;
+            this.updated = updated;
+        }
+    }
+
+    private static class Stripe extends LinkedHashMap<String, Bucket> {
+        private final int maxClients;
+
+        Stripe(int maxClients) {
+            super(16, 0.75f, true);
+            this.maxClients = maxClients;
+        }
+    }
+
+}
@@ -0,0 +1,302 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC_TIMESTAMP;
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC_TTL;
+
+/**
+ * Field container of a signed message, kept sorted by field name.
+ * The fields are held in a pair of small arrays ordered like a TreeMap, so the canonical message is built without sorting.
+ * The hmac-ts and hmac-ttl fields set from a Date or a Number are held as primitive longs,
+ * they are seen through the Map interface as a Date and a Long.
+ * The container is not thread safe.
+ */
+public final class HmacFields extends AbstractMap<String, Object> {
+    public static final long NONE = HmacUrlVerification.NONE;
+    private static final int DEFAULT_CAPACITY = 8;
+    //placeholders of the fields held as primitives
+    private static final Object TIMESTAMP = new Object();
+    private static final Object TIME_TO_LIVE = new Object();
+
+    private String[] names;
+    private Object[] values;
+    private int size;
+    private int modifications;
+    private long timestamp = NONE;
+    private long timeToLive = NONE;
+    private EntrySet entrySet;
+
+    public HmacFields() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public HmacFields(int capacity) {
+        this.names = new String[Math.max(capacity, 1)];
+        this.values = new Object[this.names.length];
+    }
+
+    public HmacFields(Map<String, Object> fields) {
+        if (fields instanceof HmacFields) {
+            HmacFields other = (HmacFields) fields;
+            this.names = Arrays.copyOf(other.names, Math.max(other.size, 1));
+            this.values = Arrays.copyOf(other.values, this.names.length);
+            this.size = other.size;
+            this.timestamp = other.timestamp;
+            this.timeToLive = other.timeToLive;
+        } else {
+            this.names = new String[Math.max(fields.size(), 1)];
+            this.values = new Object[this.names.length];
+            putAll(fields);
+        }
+    }
+
+    /**
+     * Wraps a map without copying it when it is already a field container.
+     *
+     * @param fields the fields
+     * @return the fields as a container
+     */
+    public static HmacFields of(Map<String, Object> fields) {
+        return (fields instanceof HmacFields) ? (HmacFields) fields : new HmacFields(fields);
+    }
+
+    /**
+     * @return the hmac-ts field in milliseconds since the epoch or {@link #NONE}
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        if (timestamp == NONE) {
+            remove(FIELD_HMAC_TIMESTAMP);
+        } else {
+            this.timestamp = timestamp;
+            store(FIELD_HMAC_TIMESTAMP, TIMESTAMP);
+        }
+    }
+
+    /**
+     * @return the hmac-ttl field in seconds or {@link #NONE}
+     */
+    public long getTimeToLive() {
+        return this.timeToLive;
+    }
+
+    public void setTimeToLive(long timeToLive) {
+        if (timeToLive == NONE) {
+            remove(FIELD_HMAC_TTL);
+        } else {
+            this.timeToLive = timeToLive;
+            store(FIELD_HMAC_TTL, TIME_TO_LIVE);
+        }
+    }
+
+    /**
+     * @return the field name at the given position in name order
+     */
+    public String nameAt(int index) {
+        return this.names[index];
+    }
+
+    /**
+     * @return the field value at the given position in name order, as seen through the Map interface
+     */
+    public Object valueAt(int index) {
+        return materialize(this.values[index]);
+    }
+
+    /**
+     * Returns the string form of the value at the given position, as {@link Hmac#getValueAsString(Object)} would,
+     * without materializing the primitive fields.
+     */
+    public String valueAsStringAt(int index) {
+        Object value = this.values[index];
+        if (value == TIMESTAMP) {
+            return HmacTimestampCodec.getDefault().format(this.timestamp);
+        }
+        if (value == TIME_TO_LIVE) {
+            return Long.toString(this.timeToLive);
+        }
+        return Hmac.getValueAsString(value);
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return (key instanceof String) && indexOf((String) key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int index = indexOf((String) key);
+        return (index >= 0) ? materialize(this.values[index]) : null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        if (key == null) {
+            throw new NullPointerException("Field names can not be null");
+        }
+        int index = indexOf(key);
+        Object previous = (index >= 0) ? materialize(this.values[index]) : null;
+        if (FIELD_HMAC_TIMESTAMP.equals(key) && value instanceof Date) {
+            this.timestamp = ((Date) value).getTime();
+            value = TIMESTAMP;
+        } else if (FIELD_HMAC_TTL.equals(key) && value instanceof Number) {
+            this.timeToLive = ((Number) value).longValue();
+            value = TIME_TO_LIVE;
+        }
+        store(key, value);
+        return previous;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int index = indexOf((String) key);
+        if (index < 0) {
+            return null;
+        }
+        Object previous = materialize(this.values[index]);
+        removeAt(index);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(this.names, 0, this.size, null);
+        Arrays.fill(this.values, 0, this.size, null);
+        this.size = 0;
+        this.timestamp = NONE;
+        this.timeToLive = NONE;
+        this.modifications++;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if (this.entrySet == null) {
+            this.entrySet = new EntrySet();
+        }
+        return this.entrySet;
+    }
+
+    private int indexOf(String key) {
+        return Arrays.binarySearch(this.names, 0, this.size, key);
+    }
+
+    private void store(String key, Object value) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            if (this.values[index] == TIMESTAMP && value != TIMESTAMP) {
+                this.timestamp = NONE;
+            } else if (this.values[index] == TIME_TO_LIVE && value != TIME_TO_LIVE) {
+                this.timeToLive = NONE;
+            }
+            this.values[index] = value;
+            return;
+        }
+        index = -index - 1;
+        if (this.size == this.names.length) {
+            int capacity = this.names.length * 2;
+            this.names = Arrays.copyOf(this.names, capacity);
+            this.values = Arrays.copyOf(this.values, capacity);
+        }
+        System.arraycopy(this.names, index, this.names, index + 1, this.size - index);
+        System.arraycopy(this.values, index, this.values, index + 1, this.size - index);
+        this.names[index] = key;
+        this.values[index] = value;
+        this.size++;
+        this.modifications++;
+    }
+
+    private void removeAt(int index) {
+        if (this.values[index] == TIMESTAMP) {
+            this.timestamp = NONE;
+        } else if (this.values[index] == TIME_TO_LIVE) {
+            this.timeToLive = NONE;
+        }
+        System.arraycopy(this.names, index + 1, this.names, index, this.size - index - 1);
+        System.arraycopy(this.values, index + 1, this.values, index, this.size - index - 1);
+        this.size--;
+        this.names[this.size] = null;
+        this.values[this.size] = null;
+        this.modifications++;
+    }
+
+    private Object materialize(Object value) {
+        if (value == TIMESTAMP) {
+            return new Date(this.timestamp);
+        }
+        if (value == TIME_TO_LIVE) {
+            return this.timeToLive;
+        }
+        return value;
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+        @Override
+        public int size() {
+            return HmacFields.this.size;
+        }
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            return new Iterator<Entry<String, Object>>() {
+                private int next;
+                private int last = -1;
+                private int expectedModifications = HmacFields.this.modifications;
+
+                @Override
+                public boolean hasNext() {
+                    return this.next < HmacFields.this.size;
+                }
+
+                @Override
+                public Entry<String, Object> next() {
+                    if (this.expectedModifications != HmacFields.this.modifications) {
+                        throw new ConcurrentModificationException();
+                    }
+                    if (this.next >= HmacFields.this.size) {
+                        throw new NoSuchElementException();
+                    }
+                    this.last = this.next++;
+                    return new SimpleImmutableEntry<>(nameAt(this.last), valueAt(this.last));
+                }
+
+                @Override
+                public void remove() {
+                    if (this.last < 0) {
+                        throw new IllegalStateException();
+                    }
+                    if (this.expectedModifications != HmacFields.this.modifications) {
+                        throw new ConcurrentModificationException();
+                    }
+                    removeAt(this.last);
+                    this.next = this.last;
+                    this.last = -1;
+                    this.expectedModifications = HmacFields.this.modifications;
+                }
+            };
+        }
+    }
+
+}
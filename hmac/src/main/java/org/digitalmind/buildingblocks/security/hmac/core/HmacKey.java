@@ -0,0 +1,62 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacSignExcception;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Precompiled signing key of a hmac context with its own pool of initialized Mac instances.
+ * The key without id is the legacy secret of the context, used for urls carrying no hmac-kid.
+ */
+@Getter
+public class HmacKey {
+    public static final long UNBOUNDED_START = Long.MIN_VALUE;
+    public static final long UNBOUNDED_END = Long.MAX_VALUE;
+
+    private final String id;
+    private final long activeFrom;
+    private final long retireAt;
+    @Getter(AccessLevel.NONE)
+    private final HmacMacPool macPool;
+
+    HmacKey(String id, SecretKeySpec key, long activeFrom, long retireAt, HmacMacStrategy strategy, int poolSize) throws HmacSignExcception {
+        this.id = id;
+        this.activeFrom = activeFrom;
+        this.retireAt = retireAt;
+        this.macPool = HmacMacPool.create(strategy, key.getAlgorithm(), key, poolSize);
+    }
+
+    /**
+     * @param now the current time in milliseconds since the epoch
+     * @return true if the key may sign at the given time
+     */
+    public boolean isActive(long now) {
+        return this.activeFrom <= now && now < this.retireAt;
+    }
+
+    /**
+     * @param now the current time in milliseconds since the epoch
+     * @return true if the urls signed with the key are no longer accepted
+     */
+    public boolean isRetired(long now) {
+        return now >= this.retireAt;
+    }
+
+    /**
+     * Obtains a Mac initialized with this key.
+     * The Mac must be given back with {@link #releaseMac(Mac)} once the signature is computed.
+     *
+     * @return an initialized Mac
+     */
+    public Mac acquireMac() throws HmacSignExcception {
+        return this.macPool.acquire();
+    }
+
+    public void releaseMac(Mac mac) {
+        this.macPool.release(mac);
+    }
+
+}
@@ -0,0 +1,47 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacSignExcception;
+
+import javax.crypto.Mac;
+
+/**
+ * Holds one Mac across a sequence of signatures, as done by batch operations.
+ * The Mac is kept while the same key is asked for and exchanged when the key changes,
+ * it is given back to the pool of its key on {@link #close()}. A lease is not thread safe.
+ */
+public final class HmacMacLease implements AutoCloseable {
+    private HmacKey key;
+    private Mac mac;
+
+    /**
+     * @param key the key of the next signature
+     * @return a Mac initialized with the key
+     */
+    public Mac acquire(HmacKey key) throws HmacSignExcception {
+        if (this.key != key) {
+            close();
+            this.mac = key.acquireMac();
+            this.key = key;
+        }
+        return this.mac;
+    }
+
+    /**
+     * Resets the held Mac after a failed signature.
+     */
+    public void reset() {
+        if (this.mac != null) {
+            this.mac.reset();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.mac != null) {
+            this.key.releaseMac(this.mac);
+            this.mac = null;
+            this.key = null;
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacSignExcception;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Provides initialized Mac instances for a signing key.
+ * A Mac obtained with {@link #acquire()} is owned by the caller until it is
+ * given back with {@link #release(Mac)}, it must not be used after the release.
+ */
+public abstract class HmacMacPool {
+    private final String algorithm;
+    private final SecretKeySpec key;
+
+    protected HmacMacPool(String algorithm, SecretKeySpec key) {
+        this.algorithm = algorithm;
+        this.key = key;
+    }
+
+    public static HmacMacPool create(HmacMacStrategy strategy, String algorithm, SecretKeySpec key, int size) throws HmacSignExcception {
+        if (strategy == null) {
+            strategy = HmacMacStrategy.THREAD_LOCAL;
+        }
+        switch (strategy) {
+            case NONE:
+                return new NoneMacPool(algorithm, key);
+            case THREAD_LOCAL:
+                return new ThreadLocalMacPool(algorithm, key);
+            case STRIPED_POOL:
+                return new StripedMacPool(algorithm, key, size);
+            case CLONE:
+                return new CloneMacPool(algorithm, key);
+            default:
+                throw new HmacSignExcception("Unsupported mac strategy " + strategy);
+        }
+    }
+
+    public abstract Mac acquire() throws HmacSignExcception;
+
+    public abstract void release(Mac mac);
+
+    public String getAlgorithm() {
+        return this.algorithm;
+    }
+
+    protected Mac newMac() throws HmacSignExcception {
+        try {
+            final Mac mac = Mac.getInstance(this.algorithm);
+            mac.init(this.key);
+            return mac;
+        } catch (final NoSuchAlgorithmException exception) {
+            throw new HmacSignExcception("Unsupported Message Authentication Code (MAC) algorithm: " + this.algorithm, exception);
+        } catch (final InvalidKeyException exception) {
+            throw new HmacSignExcception("Invalid code for Message Authentication Code (MAC)", exception);
+        }
+    }
+
+    private static class NoneMacPool extends HmacMacPool {
+        NoneMacPool(String algorithm, SecretKeySpec key) {
+            super(algorithm, key);
+        }
+
+        @Override
+        public Mac acquire() throws HmacSignExcception {
+            return newMac();
+        }
+
+        @Override
+        public void release(Mac mac) {
+        }
+    }
+
+    private static class ThreadLocalMacPool extends HmacMacPool {
+        //the slot is emptied while the mac is in use, a nested acquire on the same thread gets its own mac
+        private final ThreadLocal<Mac> local = new ThreadLocal<>();
+
+        ThreadLocalMacPool(String algorithm, SecretKeySpec key) {
+            super(algorithm, key);
+        }
+
+        @Override
+        public Mac acquire() throws HmacSignExcception {
+            Mac mac = this.local.get();
+            if (mac == null) {
+                return newMac();
+            }
+            this.local.set(null);
+            return mac;
+        }
+
+        @Override
+        public void release(Mac mac) {
+            mac.reset();
+            this.local.set(mac);
+        }
+    }
+
+    private static class StripedMacPool extends HmacMacPool {
+        private static final int PROBES = 4;
+        private final AtomicReferenceArray<Mac> slots;
+        private final int mask;
+
+        StripedMacPool(String algorithm, SecretKeySpec key, int size) {
+            super(algorithm, key);
+            if (size <= 0) {
+                size = 2 * Runtime.getRuntime().availableProcessors();
+            }
+            int capacity = Integer.highestOneBit(Math.max(size, PROBES) - 1) << 1;
+            this.slots = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        private int stripe() {
+            long id = Thread.currentThread().getId();
+            int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & this.mask;
+        }
+
+        @Override
+        public Mac acquire() throws HmacSignExcception {
+            int stripe = stripe();
+            for (int i = 0; i < PROBES; i++) {
+                Mac mac = this.slots.getAndSet((stripe + i) & this.mask, null);
+                if (mac != null) {
+                    return mac;
+                }
+            }
+            return newMac();
+        }
+
+        @Override
+        public void release(Mac mac) {
+            mac.reset();
+            int stripe = stripe();
+            for (int i = 0; i < PROBES; i++) {
+                if (this.slots.compareAndSet((stripe + i) & this.mask, null, mac)) {
+                    return;
+                }
+            }
+            //pool is full around this stripe, the mac is left to the garbage collector
+        }
+    }
+
+    private static class CloneMacPool extends HmacMacPool {
+        private final Mac prototype;
+        private volatile boolean cloneable = true;
+
+        CloneMacPool(String algorithm, SecretKeySpec key) throws HmacSignExcception {
+            super(algorithm, key);
+            this.prototype = newMac();
+        }
+
+        @Override
+        public Mac acquire() throws HmacSignExcception {
+            if (this.cloneable) {
+                try {
+                    return (Mac) this.prototype.clone();
+                } catch (CloneNotSupportedException exception) {
+                    //the provider does not support cloning, fall back to new instances
+                    this.cloneable = false;
+                }
+            }
+            return newMac();
+        }
+
+        @Override
+        public void release(Mac mac) {
+        }
+    }
+
+}
@@ -0,0 +1,24 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+/**
+ * Strategies used by a hmac context to reuse initialized Mac instances.
+ */
+public enum HmacMacStrategy {
+    /**
+     * A new Mac is created and initialized for every signature.
+     */
+    NONE,
+    /**
+     * Every thread keeps one initialized Mac per context.
+     */
+    THREAD_LOCAL,
+    /**
+     * A bounded pool of initialized Macs shared by all threads,
+     * suited for many short lived threads.
+     */
+    STRIPED_POOL,
+    /**
+     * Every signature clones an initialized prototype Mac.
+     */
+    CLONE
+}
@@ -0,0 +1,19 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * A url split by {@link HmacUrlParser} in base, query and fragment.
+ */
+@Getter
+@AllArgsConstructor
+public class HmacParsedUrl {
+    private final String base;
+    private final String fragment;
+    private final int queryStart;
+    private final int queryEnd;
+    private final Map<String, Object> fields;
+}
@@ -0,0 +1,230 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded set of the hmacs already used, making signed urls single use.
+ * Hmacs are kept in time buckets aligned to the expiration of their url (hmac-ts + hmac-ttl),
+ * a bucket is recycled as a whole once all of its urls have expired, nothing is ever scanned.
+ * The hmacs are split over lock stripes by their 128 bit fingerprint, a stripe keeps an open addressing table per bucket,
+ * allocated on the first insert into the bucket and reused when the bucket is recycled.
+ * Every stripe holds at most its share of the capacity given at construction.
+ */
+public class HmacReplayGuard {
+    private static final int INITIAL_TABLE_CAPACITY = 16;
+    //a table grown beyond this capacity by a burst is given back when recycled instead of being cleared
+    private static final int MAX_RETAINED_TABLE_CAPACITY = 1024;
+
+    private final long bucketMillis;
+    private final long horizonMillis;
+    private final int bucketCount;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int stripeCapacity;
+    private final LongAdder overflows = new LongAdder();
+    private final AtomicLong sweptIndex = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param bucketMillis  the time span of a bucket
+     * @param horizonMillis the longest time to live of a guarded url
+     * @param capacity      the maximum number of hmacs kept, rounded up to a multiple of the stripes
+     * @param stripes       the number of lock stripes
+     */
+    public HmacReplayGuard(long bucketMillis, long horizonMillis, int capacity, int stripes) {
+        this.bucketMillis = bucketMillis;
+        this.horizonMillis = horizonMillis;
+        //one more bucket than the horizon needs, a bucket is recycled only after its urls expired
+        this.bucketCount = (int) ((horizonMillis + bucketMillis - 1) / bucketMillis) + 1;
+        int stripeCount = Integer.highestOneBit(Math.max(stripes, 1) - 1) << 1;
+        if (stripeCount == 0) {
+            stripeCount = 1;
+        }
+        this.stripeMask = stripeCount - 1;
+        this.stripeCapacity = Math.max((capacity + stripeCount - 1) / stripeCount, 1);
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe(this.bucketCount);
+        }
+    }
+
+    /**
+     * Marks a hmac as used.
+     *
+     * @param hmac      the raw hmac bytes of the url
+     * @param expiresAt the expiration of the url in milliseconds since the epoch
+     * @param now       the current time in milliseconds since the epoch
+     * @return true on the first use of the hmac, false if it was already used
+     * or the url cannot be guarded (expiration beyond the horizon or guard full)
+     */
+    public boolean markUsed(byte[] hmac, long expiresAt, long now) {
+        if (expiresAt <= now || expiresAt - now > this.horizonMillis) {
+            return false;
+        }
+        long high = readLong(hmac, 0);
+        long low = readLong(hmac, 8);
+        if (high == 0 && low == 0) {
+            low = 1;
+        }
+        sweep(now);
+        long bucketIndex = Math.floorDiv(expiresAt, this.bucketMillis);
+        int slot = (int) Math.floorMod(bucketIndex, (long) this.bucketCount);
+        Stripe stripe = this.stripes[(int) low & this.stripeMask];
+        synchronized (stripe) {
+            Table table = stripe.tables[slot];
+            if (table != null && table.epoch != bucketIndex) {
+                if (table.epoch > bucketIndex) {
+                    //the bucket already holds later urls, this one has expired meanwhile
+                    return false;
+                }
+                stripe.size -= table.size;
+                table.reset(bucketIndex);
+            }
+            if (table != null && table.contains(high, low)) {
+                return false;
+            }
+            if (stripe.size >= this.stripeCapacity) {
+                this.overflows.increment();
+                return false;
+            }
+            if (table == null) {
+                table = new Table(bucketIndex);
+                stripe.tables[slot] = table;
+            }
+            table.add(high, low);
+            stripe.size++;
+            return true;
+        }
+    }
+
+    /**
+     * Once per bucket period releases the buckets whose urls have just expired,
+     * so that their fingerprints stop counting against the capacity.
+     */
+    private void sweep(long now) {
+        long expiredIndex = Math.floorDiv(now, this.bucketMillis) - 1;
+        long swept = this.sweptIndex.get();
+        if (swept >= expiredIndex || !this.sweptIndex.compareAndSet(swept, expiredIndex)) {
+            return;
+        }
+        long from = Math.max(swept + 1, expiredIndex - this.bucketCount + 1);
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                for (long index = from; index <= expiredIndex; index++) {
+                    Table table = stripe.tables[(int) Math.floorMod(index, (long) this.bucketCount)];
+                    if (table != null && table.epoch <= expiredIndex && table.size > 0) {
+                        stripe.size -= table.size;
+                        table.reset(table.epoch);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of hmacs currently kept
+     */
+    public int getSize() {
+        int size = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of urls rejected because their stripe was full
+     */
+    public long getOverflowCount() {
+        return this.overflows.sum();
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | ((i < bytes.length) ? (bytes[i] & 0xFF) : 0);
+        }
+        return value;
+    }
+
+    private static class Stripe {
+        //the table of each bucket, null until a hmac is kept in the bucket
+        private final Table[] tables;
+        private int size;
+
+        Stripe(int bucketCount) {
+            this.tables = new Table[bucketCount];
+        }
+    }
+
+    private static class Table {
+        private long epoch;
+        //pairs of longs, an all zero pair is an empty slot, kept at most half full
+        private long[] table = new long[INITIAL_TABLE_CAPACITY * 2];
+        private int size;
+
+        Table(long epoch) {
+            this.epoch = epoch;
+        }
+
+        void reset(long epoch) {
+            this.epoch = epoch;
+            if (this.table.length > MAX_RETAINED_TABLE_CAPACITY * 2) {
+                this.table = new long[INITIAL_TABLE_CAPACITY * 2];
+            } else if (this.size > 0) {
+                Arrays.fill(this.table, 0);
+            }
+            this.size = 0;
+        }
+
+        boolean contains(long high, long low) {
+            long[] t = this.table;
+            int mask = (t.length >> 1) - 1;
+            int index = slot(high, mask);
+            while (true) {
+                long h = t[index << 1];
+                long l = t[(index << 1) + 1];
+                if (h == high && l == low) {
+                    return true;
+                }
+                if (h == 0 && l == 0) {
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+
+        void add(long high, long low) {
+            if ((this.size + 1) * 4 > this.table.length) {
+                long[] old = this.table;
+                this.table = new long[old.length * 2];
+                for (int i = 0; i < old.length; i += 2) {
+                    if (old[i] != 0 || old[i + 1] != 0) {
+                        insert(old[i], old[i + 1]);
+                    }
+                }
+            }
+            insert(high, low);
+            this.size++;
+        }
+
+        private void insert(long high, long low) {
+            long[] t = this.table;
+            int mask = (t.length >> 1) - 1;
+            int index = slot(high, mask);
+            while (t[index << 1] != 0 || t[(index << 1) + 1] != 0) {
+                index = (index + 1) & mask;
+            }
+            t[index << 1] = high;
+            t[(index << 1) + 1] = low;
+        }
+
+        private static int slot(long high, int mask) {
+            return (int) (high ^ (high >>> 32)) & mask;
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacSignExcception;
+
+import javax.crypto.Mac;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Hmac of payloads too large to be held as a String, read from a stream, a buffer or a file.
+ * The bytes are fed to the Mac as they are read, the heap used does not depend on the payload size,
+ * files are memory mapped a chunk at a time. The hash of a payload is the same as the hash of
+ * {@link Hmac#create(HmacContext, String)} for a message encoded in the same bytes.
+ * <p>
+ * A payload is signed with a named key, or with the legacy secret of the context when no key id is given,
+ * the same as a url without hmac-kid. As the payload carries no hmac-kid,
+ * the id of the signing key must be kept by the caller to verify it.
+ */
+public final class HmacStream {
+    public static final int BUFFER_SIZE = 64 * 1024;
+    public static final long MAP_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private HmacStream() {
+    }
+
+    public static String create(final HmacContext context, final String keyId, final InputStream input) throws HmacSignExcception {
+        return Hmac.encode(createRaw(context, keyId, input));
+    }
+
+    public static String create(final HmacContext context, final String keyId, final ByteBuffer input) throws HmacSignExcception {
+        return Hmac.encode(createRaw(context, keyId, input));
+    }
+
+    public static String create(final HmacContext context, final String keyId, final Path input) throws HmacSignExcception {
+        return Hmac.encode(createRaw(context, keyId, input));
+    }
+
+    /**
+     * Hashes a stream up to its end, the stream is not closed.
+     *
+     * @param context the compiled hmac context
+     * @param keyId   the id of the key, null for the legacy secret, refused while a named key is active
+     * @param input   the payload
+     * @return the raw hmac bytes
+     */
+    public static byte[] createRaw(final HmacContext context, final String keyId, final InputStream input) throws HmacSignExcception {
+        final HmacKey key = resolveKey(context, keyId);
+        final Mac mac = key.acquireMac();
+        try {
+            return createRaw(mac, input);
+        } finally {
+            key.releaseMac(mac);
+        }
+    }
+
+    /**
+     * Hashes the remaining bytes of a buffer, the position of the buffer is left unchanged.
+     */
+    public static byte[] createRaw(final HmacContext context, final String keyId, final ByteBuffer input) throws HmacSignExcception {
+        final HmacKey key = resolveKey(context, keyId);
+        final Mac mac = key.acquireMac();
+        try {
+            return createRaw(mac, input);
+        } finally {
+            key.releaseMac(mac);
+        }
+    }
+
+    /**
+     * Hashes a file, mapped in memory in chunks of {@link #MAP_CHUNK_SIZE} bytes.
+     */
+    public static byte[] createRaw(final HmacContext context, final String keyId, final Path input) throws HmacSignExcception {
+        final HmacKey key = resolveKey(context, keyId);
+        final Mac mac = key.acquireMac();
+        try {
+            return createRaw(mac, input);
+        } finally {
+            key.releaseMac(mac);
+        }
+    }
+
+    /**
+     * Hashes a stream with a Mac owned by the caller, the Mac is left reset.
+     */
+    public static byte[] createRaw(final Mac mac, final InputStream input) throws HmacSignExcception {
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                mac.update(buffer, 0, read);
+            }
+            return mac.doFinal();
+        } catch (IOException exception) {
+            throw new HmacSignExcception("IOException for Message Authentication Code (MAC)", exception);
+        } finally {
+            mac.reset();
+        }
+    }
+
+    public static byte[] createRaw(final Mac mac, final ByteBuffer input) {
+        try {
+            mac.update(input.duplicate());
+            return mac.doFinal();
+        } finally {
+            mac.reset();
+        }
+    }
+
+    public static byte[] createRaw(final Mac mac, final Path input) throws HmacSignExcception {
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAP_CHUNK_SIZE) {
+                mac.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_CHUNK_SIZE, size - position)));
+            }
+            return mac.doFinal();
+        } catch (IOException exception) {
+            throw new HmacSignExcception("IOException for Message Authentication Code (MAC)", exception);
+        } finally {
+            mac.reset();
+        }
+    }
+
+    /**
+     * Validates the hmac of a stream, the presented hmac is decoded once and compared in constant time.
+     *
+     * @param hmac    the given hmac to be validated
+     * @param context the compiled hmac context
+     * @param keyId   the id of the key which signed the payload, null for the legacy secret of the context
+     * @param input   the payload
+     * @return true if hmac has been verified
+     */
+    public static boolean verify(final String hmac, final HmacContext context, final String keyId, final InputStream input) throws HmacSignExcception {
+        byte[] presented = Hmac.decode(hmac);
+        final HmacKey key = findKey(context, keyId);
+        if (presented == null || presented.length != context.getMacLength() || key == null) {
+            return false;
+        }
+        final Mac mac = key.acquireMac();
+        try {
+            return Hmac.isEqual(createRaw(mac, input), presented);
+        } finally {
+            key.releaseMac(mac);
+        }
+    }
+
+    public static boolean verify(final String hmac, final HmacContext context, final String keyId, final ByteBuffer input) throws HmacSignExcception {
+        byte[] presented = Hmac.decode(hmac);
+        final HmacKey key = findKey(context, keyId);
+        if (presented == null || presented.length != context.getMacLength() || key == null) {
+            return false;
+        }
+        final Mac mac = key.acquireMac();
+        try {
+            return Hmac.isEqual(createRaw(mac, input), presented);
+        } finally {
+            key.releaseMac(mac);
+        }
+    }
+
+    public static boolean verify(final String hmac, final HmacContext context, final String keyId, final Path input) throws HmacSignExcception {
+        byte[] presented = Hmac.decode(hmac);
+        final HmacKey key = findKey(context, keyId);
+        if (presented == null || presented.length != context.getMacLength() || key == null) {
+            return false;
+        }
+        final Mac mac = key.acquireMac();
+        try {
+            return Hmac.isEqual(createRaw(mac, input), presented);
+        } finally {
+            key.releaseMac(mac);
+        }
+    }
+
+    /**
+     * Picks the signing key, a payload signed without key id while a named key is active could not be verified by its id.
+     */
+    private static HmacKey resolveKey(final HmacContext context, final String keyId) throws HmacSignExcception {
+        if (keyId == null) {
+            final HmacKey key = context.getSigningKey();
+            if (key.getId() != null) {
+                throw new HmacSignExcception("Missing key id for the active key " + key.getId() + " of hmac context " + context.getName());
+            }
+            return key;
+        }
+        final HmacKey key = findKey(context, keyId);
+        if (key == null) {
+            throw new HmacSignExcception("Unknown or retired key " + keyId + " for hmac context " + context.getName());
+        }
+        return key;
+    }
+
+    /**
+     * @return the key of the id, the legacy secret for a null id, or null when unknown or retired
+     */
+    private static HmacKey findKey(final HmacContext context, final String keyId) {
+        final HmacKey key = context.getKey(keyId);
+        return (key != null && !key.isRetired(context.getClock().millis())) ? key : null;
+    }
+
+}
@@ -0,0 +1,159 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
+
+import java.util.TimeZone;
+
+/**
+ * Thread safe codec for the yyyyMMddHHmmss timestamps carried by the hmac-ts field.
+ * Formatting and parsing are done with plain digit arithmetic in the time zone of the codec,
+ * the last formatted second is cached because many urls are signed within the same second.
+ */
+public final class HmacTimestampCodec {
+    public static final int LENGTH = 14;
+    private static final HmacTimestampCodec DEFAULT = new HmacTimestampCodec(TimeZone.getDefault());
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long SECONDS_PER_DAY = 24L * 60 * 60;
+    private static final long DAYS_0000_TO_1970 = 719528L;
+
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[LENGTH]);
+
+    private final TimeZone timeZone;
+    private volatile Formatted last = new Formatted(Long.MIN_VALUE, null);
+
+    public HmacTimestampCodec(TimeZone timeZone) {
+        this.timeZone = (TimeZone) timeZone.clone();
+    }
+
+    /**
+     * Returns the codec using the default time zone of the jvm,
+     * the same zone used by the previous SimpleDateFormat based conversion.
+     *
+     * @return the default codec
+     */
+    public static HmacTimestampCodec getDefault() {
+        return DEFAULT;
+    }
+
+    public String format(long epochMillis) {
+        long epochSecond = Math.floorDiv(epochMillis, MILLIS_PER_SECOND);
+        Formatted formatted = this.last;
+        if (formatted.epochSecond == epochSecond) {
+            return formatted.value;
+        }
+        char[] buffer = BUFFER.get();
+        formatTo(epochMillis, buffer, 0);
+        String value = new String(buffer, 0, LENGTH);
+        this.last = new Formatted(epochSecond, value);
+        return value;
+    }
+
+    /**
+     * Writes the timestamp into the given buffer.
+     *
+     * @param epochMillis the timestamp in milliseconds since the epoch
+     * @param buffer      the destination buffer
+     * @param offset      the position of the first character, the buffer must have room for {@link #LENGTH} characters
+     */
+    public void formatTo(long epochMillis, char[] buffer, int offset) {
+        long localSecond = Math.floorDiv(epochMillis + this.timeZone.getOffset(epochMillis), MILLIS_PER_SECOND);
+        long epochDay = Math.floorDiv(localSecond, SECONDS_PER_DAY);
+        int secondOfDay = (int) Math.floorMod(localSecond, SECONDS_PER_DAY);
+
+        //civil from days, see http://howardhinnant.github.io/date_algorithms.html
+        long zeroDay = epochDay + DAYS_0000_TO_1970 - 60;
+        long era = Math.floorDiv(zeroDay, 146097);
+        long dayOfEra = zeroDay - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthPart = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * monthPart + 2) / 5 + 1);
+        int month = (int) (monthPart < 10 ? monthPart + 3 : monthPart - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        int y = (int) year;
+        buffer[offset] = (char) ('0' + (y / 1000) % 10);
+        buffer[offset + 1] = (char) ('0' + (y / 100) % 10);
+        buffer[offset + 2] = (char) ('0' + (y / 10) % 10);
+        buffer[offset + 3] = (char) ('0' + y % 10);
+        writeTwoDigits(buffer, offset + 4, month);
+        writeTwoDigits(buffer, offset + 6, day);
+        writeTwoDigits(buffer, offset + 8, secondOfDay / 3600);
+        writeTwoDigits(buffer, offset + 10, (secondOfDay / 60) % 60);
+        writeTwoDigits(buffer, offset + 12, secondOfDay % 60);
+    }
+
+    public long parse(CharSequence value) throws HmacFieldException {
+        return parse(value, 0, (value != null) ? value.length() : 0);
+    }
+
+    /**
+     * Parses a yyyyMMddHHmmss timestamp.
+     *
+     * @param value the characters holding the timestamp
+     * @param start the position of the first character
+     * @param end   the position after the last character
+     * @return the timestamp in milliseconds since the epoch
+     */
+    public long parse(CharSequence value, int start, int end) throws HmacFieldException {
+        if (value == null || end - start != LENGTH) {
+            throw new HmacFieldException("Unable to parse " + value + " to date");
+        }
+        int year = readDigits(value, start, 4);
+        int month = readDigits(value, start + 4, 2);
+        int day = readDigits(value, start + 6, 2);
+        int hour = readDigits(value, start + 8, 2);
+        int minute = readDigits(value, start + 10, 2);
+        int second = readDigits(value, start + 12, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            throw new HmacFieldException("Unable to parse " + value.subSequence(start, end) + " to date");
+        }
+
+        //days from civil, see http://howardhinnant.github.io/date_algorithms.html
+        long y = (month <= 2) ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long epochDay = era * 146097 + dayOfEra - (DAYS_0000_TO_1970 - 60);
+
+        long localMillis = (epochDay * SECONDS_PER_DAY + hour * 3600L + minute * 60L + second) * MILLIS_PER_SECOND;
+        int offset = this.timeZone.getOffset(localMillis - this.timeZone.getRawOffset());
+        long epochMillis = localMillis - offset;
+        int actualOffset = this.timeZone.getOffset(epochMillis);
+        if (actualOffset != offset) {
+            epochMillis = localMillis - actualOffset;
+        }
+        return epochMillis;
+    }
+
+    private static void writeTwoDigits(char[] buffer, int offset, int value) {
+        buffer[offset] = (char) ('0' + value / 10);
+        buffer[offset + 1] = (char) ('0' + value % 10);
+    }
+
+    private static int readDigits(CharSequence value, int offset, int count) {
+        int result = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
+    private static final class Formatted {
+        private final long epochSecond;
+        private final String value;
+
+        private Formatted(long epochSecond, String value) {
+            this.epochSecond = epochSecond;
+            this.value = value;
+        }
+    }
+
+}
@@ -0,0 +1,316 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacSignExcception;
+
+import javax.crypto.Mac;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Map;
+
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC;
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC_KID;
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC_TIMESTAMP;
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC_TTL;
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC_TOKEN;
+
+/**
+ * Compact binary form of a signed message, carried by a single base64url (unpadded) url parameter.
+ * <pre>
+ * version    : 1 byte
+ * flags      : 1 byte, key id / timestamp / time to live present
+ * key id     : varint length + bytes, when flagged
+ * timestamp  : zigzag varint, seconds since the epoch, when flagged
+ * ttl        : zigzag varint, seconds, when flagged
+ * count      : varint number of fields
+ * fields     : varint length + name bytes, varint length + value bytes, in name order
+ * hmac       : the raw hmac of all the preceding bytes, as long as the Mac of the context
+ * </pre>
+ * The hmac is calculated over the raw bytes, nothing is url encoded or sorted again on validation,
+ * a token is decoded in a single pass. All the fields of a token are signed.
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public final class HmacToken {
+    public static final int VERSION = 1;
+    private static final int FLAG_KEY_ID = 1;
+    private static final int FLAG_TIMESTAMP = 2;
+    private static final int FLAG_TTL = 4;
+    private static final int MAX_VARINT_BYTES = 10;
+    private static final long MAX_TIMESTAMP_SECONDS = Long.MAX_VALUE / 1000L - 1;
+
+    private final String keyId;
+    private final long timestamp;
+    private final long timeToLive;
+    private final HmacFields fields;
+    private final byte[] message;
+    private final int messageLength;
+    private final byte[] hmac;
+
+    /**
+     * Signs the fields with the active key of the context.
+     * The hmac-ts and hmac-ttl fields are carried in the header, hmac-ts with a precision of one second.
+     *
+     * @param context the hmac context
+     * @param fields  the fields to be signed
+     * @param lease   the lease providing the Mac of the signing key, null to acquire one for this call
+     * @return the base64url token
+     */
+    public static String create(HmacContext context, Map<String, Object> fields, HmacMacLease lease) throws HmacFieldException, HmacSignExcception {
+        HmacKey key = context.getSigningKey();
+        HmacFields f = new HmacFields(fields);
+        long timestamp = f.getTimestamp();
+        if (timestamp == HmacFields.NONE && f.get(FIELD_HMAC_TIMESTAMP) != null) {
+            timestamp = Hmac.getValueAsDate(f.get(FIELD_HMAC_TIMESTAMP)).getTime();
+        }
+        long timeToLive = f.getTimeToLive();
+        if (timeToLive == HmacFields.NONE && f.get(FIELD_HMAC_TTL) != null) {
+            timeToLive = Hmac.getValueAsLong(f.get(FIELD_HMAC_TTL));
+        }
+        f.remove(FIELD_HMAC);
+        f.remove(FIELD_HMAC_KID);
+        f.remove(FIELD_HMAC_TIMESTAMP);
+        f.remove(FIELD_HMAC_TTL);
+
+        Charset charset = context.getCharset();
+        Writer writer = new Writer(32 + f.size() * 24 + context.getMacLength());
+        writer.write(VERSION);
+        writer.write(((key.getId() != null) ? FLAG_KEY_ID : 0)
+                | ((timestamp != HmacFields.NONE) ? FLAG_TIMESTAMP : 0)
+                | ((timeToLive != HmacFields.NONE) ? FLAG_TTL : 0));
+        if (key.getId() != null) {
+            writer.writeBytes(key.getId().getBytes(charset));
+        }
+        if (timestamp != HmacFields.NONE) {
+            writer.writeVarint(zigzag(Math.floorDiv(timestamp, 1000L)));
+        }
+        if (timeToLive != HmacFields.NONE) {
+            writer.writeVarint(zigzag(timeToLive));
+        }
+        writer.writeVarint(f.size());
+        for (int i = 0; i < f.size(); i++) {
+            String value = f.valueAsStringAt(i);
+            if (value == null) {
+                throw new HmacFieldException("Missing value for field code: " + f.nameAt(i));
+            }
+            writer.writeBytes(f.nameAt(i).getBytes(charset));
+            writer.writeBytes(value.getBytes(charset));
+        }
+
+        if (lease != null) {
+            writer.sign(lease.acquire(key));
+        } else {
+            Mac mac = key.acquireMac();
+            try {
+                writer.sign(mac);
+            } finally {
+                key.releaseMac(mac);
+            }
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(writer.toByteArray());
+    }
+
+    /**
+     * Decodes a token without checking its hmac.
+     * The returned fields hold hmac-kid, hmac-ts and hmac-ttl when present, so that they look like the fields of a signed url.
+     *
+     * @param context the hmac context, giving the charset and the hmac length
+     * @param token   the base64url token
+     * @return the decoded token
+     */
+    public static HmacToken decode(HmacContext context, String token) throws HmacFieldException {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (final IllegalArgumentException exception) {
+            throw new HmacFieldException("The hmac token is not valid base64url", exception);
+        }
+        int messageLength = bytes.length - context.getMacLength();
+        Reader reader = new Reader(bytes, messageLength);
+        if (reader.read() != VERSION) {
+            throw new HmacFieldException("Unsupported hmac token version");
+        }
+        Charset charset = context.getCharset();
+        int flags = reader.read();
+        String keyId = ((flags & FLAG_KEY_ID) != 0) ? reader.readString(charset) : null;
+        long timestamp = ((flags & FLAG_TIMESTAMP) != 0) ? unzigzag(reader.readVarint()) : HmacFields.NONE;
+        if (timestamp != HmacFields.NONE) {
+            if (timestamp < -MAX_TIMESTAMP_SECONDS || timestamp > MAX_TIMESTAMP_SECONDS) {
+                throw new HmacFieldException("Malformed hmac token");
+            }
+            timestamp *= 1000L;
+        }
+        long timeToLive = ((flags & FLAG_TTL) != 0) ? unzigzag(reader.readVarint()) : HmacFields.NONE;
+        if ((flags & FLAG_TTL) != 0 && timeToLive == HmacFields.NONE) {
+            throw new HmacFieldException("Malformed hmac token");
+        }
+        long count = reader.readVarint();
+        if (count > messageLength) {
+            throw new HmacFieldException("Malformed hmac token");
+        }
+        HmacFields fields = new HmacFields((int) count + 3);
+        for (int i = 0; i < count; i++) {
+            String name = reader.readString(charset);
+            fields.put(name, reader.readString(charset));
+        }
+        if (reader.position != messageLength || fields.size() != count) {
+            throw new HmacFieldException("Malformed hmac token");
+        }
+        if (keyId != null) {
+            fields.put(FIELD_HMAC_KID, keyId);
+        }
+        fields.setTimestamp(timestamp);
+        fields.setTimeToLive(timeToLive);
+        byte[] hmac = Arrays.copyOfRange(bytes, messageLength, bytes.length);
+        return new HmacToken(keyId, timestamp, timeToLive, fields, bytes, messageLength, hmac);
+    }
+
+    /**
+     * Finds the token parameter of a url by a plain scan, the base64url alphabet needs no url decoding.
+     *
+     * @param url the url holding the hmac-token parameter
+     * @return the token or null when the url has none
+     */
+    public static String find(CharSequence url) {
+        int length = url.length();
+        int i = 0;
+        while (i < length && url.charAt(i) != '?') {
+            i++;
+        }
+        int nameLength = FIELD_HMAC_TOKEN.length();
+        while (i < length && url.charAt(i) != '#') {
+            int start = i + 1;
+            if (start + nameLength < length
+                    && url.charAt(start + nameLength) == '='
+                    && FIELD_HMAC_TOKEN.contentEquals(url.subSequence(start, start + nameLength))) {
+                int end = start + nameLength + 1;
+                while (end < length && url.charAt(end) != '&' && url.charAt(end) != '#') {
+                    end++;
+                }
+                return url.subSequence(start + nameLength + 1, end).toString();
+            }
+            i = start;
+            while (i < length && url.charAt(i) != '&' && url.charAt(i) != '#') {
+                i++;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Calculates the hmac of the token message with the given Mac.
+     */
+    public byte[] calculateRaw(Mac mac) {
+        mac.update(this.message, 0, this.messageLength);
+        return mac.doFinal();
+    }
+
+    public Date getDate() {
+        return (this.timestamp != HmacFields.NONE) ? new Date(this.timestamp) : null;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Writer {
+        private byte[] bytes;
+        private int position;
+
+        Writer(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        void write(int value) {
+            ensure(1);
+            this.bytes[this.position++] = (byte) value;
+        }
+
+        void writeVarint(long value) {
+            ensure(MAX_VARINT_BYTES);
+            while ((value & ~0x7FL) != 0) {
+                this.bytes[this.position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.bytes[this.position++] = (byte) value;
+        }
+
+        void writeBytes(byte[] value) {
+            writeVarint(value.length);
+            ensure(value.length);
+            System.arraycopy(value, 0, this.bytes, this.position, value.length);
+            this.position += value.length;
+        }
+
+        /**
+         * Appends the hmac of all the bytes written so far.
+         */
+        void sign(Mac mac) {
+            mac.update(this.bytes, 0, this.position);
+            byte[] hmac = mac.doFinal();
+            ensure(hmac.length);
+            System.arraycopy(hmac, 0, this.bytes, this.position, hmac.length);
+            this.position += hmac.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(this.bytes, this.position);
+        }
+
+        private void ensure(int length) {
+            if (this.position + length > this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.position + length));
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] bytes;
+        private final int end;
+        private int position;
+
+        Reader(byte[] bytes, int end) {
+            this.bytes = bytes;
+            this.end = end;
+        }
+
+        int read() throws HmacFieldException {
+            if (this.position >= this.end) {
+                throw new HmacFieldException("Malformed hmac token");
+            }
+            return this.bytes[this.position++] & 0xFF;
+        }
+
+        long readVarint() throws HmacFieldException {
+            long value = 0;
+            for (int shift = 0; shift < MAX_VARINT_BYTES * 7; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new HmacFieldException("Malformed hmac token");
+        }
+
+        String readString(Charset charset) throws HmacFieldException {
+            long length = readVarint();
+            if (length < 0 || length > this.end - this.position) {
+                throw new HmacFieldException("Malformed hmac token");
+            }
+            String value = new String(this.bytes, this.position, (int) length, charset);
+            this.position += (int) length;
+            return value;
+        }
+    }
+
+}
@@ -6,6 +6,8 @@ import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException
 import org.digitalmind.buildingblocks.security.hmac.exception.HmacSignExcception;
 import org.digitalmind.buildingblocks.security.hmac.exception.HmacUrlExpiredException;
 
+import javax.crypto.Mac;
+import java.nio.charset.Charset;
 import java.util.*;
 
 
@@ -18,6 +20,8 @@ public class HmacUrl {
     public static String FIELD_HMAC = "hmac".toLowerCase();
     public static String FIELD_HMAC_TIMESTAMP = "hmac-ts".toLowerCase();
     public static String FIELD_HMAC_TTL = "hmac-ttl".toLowerCase(); //in seconds
+    public static String FIELD_HMAC_KID = "hmac-kid".toLowerCase();
+    public static String FIELD_HMAC_TOKEN = "hmac-token".toLowerCase();
     public static String ENCODING_UTF8 = "UTF-8";
 
     public static String URL_VALUE_DELIMITER = "=";
@@ -32,6 +36,7 @@ public class HmacUrl {
     private Set<String> exceptedFields;
     private HmacAlgorithm algorithm;
     private String secret;
+    private HmacContext context;
 
     private String encoding;
     private String base;
@@ -39,6 +44,13 @@ public class HmacUrl {
     private Date timestamp;
     private Long timeToLive;
     private String hmac;
+    //the collections copied by the url, only these are changed in place, final so that the builder leaves it out
+    @Getter(AccessLevel.NONE)
+    private final EnumSet<Owned> owned = EnumSet.noneOf(Owned.class);
+
+    private enum Owned {
+        FIELDS, EXCEPTED_FIELDS
+    }
 
     public static class HmacUrlBuilder {
         public HmacUrl build() {
@@ -49,22 +61,16 @@ public class HmacUrl {
     }
 
     protected void init() {
+        //the builder collections and the excepted fields of the context are shared, they are only copied by the first change
         if (this.fields == null) {
-            this.fields = new HashMap<>();
-        } else {
-            Map<String, Object> f = new HashMap<>();
-            f.putAll(this.fields);
-            this.fields = f;
+            this.fields = new HmacFields();
+            this.owned.add(Owned.FIELDS);
         }
-        if (this.exceptedFields == null) {
-            this.exceptedFields = new HashSet();
-            clearExceptedFields();
+        if (this.exceptedFields == null || this.exceptedFields.isEmpty()) {
+            this.exceptedFields = (this.context != null) ? this.context.getExceptedFields() : Collections.singleton(FIELD_HMAC);
         } else {
-            Set<String> ef = new HashSet<>();
-            ef.addAll(this.exceptedFields);
-            this.exceptedFields = ef;
+            setExceptedField(FIELD_HMAC);
         }
-        this.exceptedFields.add(FIELD_HMAC);
         if (this.base != null) {
             if (this.base.endsWith("/")) {
                 this.base = this.base.substring(0, this.base.length() - 1);
@@ -75,6 +81,14 @@ public class HmacUrl {
                 this.fragment = this.fragment.substring(1);
             }
         }
+        if (this.context != null) {
+            if (this.algorithm == null) {
+                this.algorithm = this.context.getAlgorithm();
+            }
+            if (this.encoding == null) {
+                this.encoding = this.context.getEncoding();
+            }
+        }
         if (this.algorithm == null) {
             this.algorithm = HmacAlgorithm.HmacSHA256;
         }
@@ -104,7 +118,26 @@ public class HmacUrl {
     }
 
     protected void clearFields() {
-        this.fields.clear();
+        if (this.owned.contains(Owned.FIELDS)) {
+            this.fields.clear();
+        } else {
+            this.fields = new HmacFields();
+            this.owned.add(Owned.FIELDS);
+        }
+    }
+
+    private Map<String, Object> ownFields() {
+        if (this.owned.add(Owned.FIELDS)) {
+            this.fields = new HmacFields(this.fields);
+        }
+        return this.fields;
+    }
+
+    private Set<String> ownExceptedFields() {
+        if (this.owned.add(Owned.EXCEPTED_FIELDS)) {
+            this.exceptedFields = new HashSet<>(this.exceptedFields);
+        }
+        return this.exceptedFields;
     }
 
     protected void setField(String name, Object value) throws HmacFieldException {
@@ -123,9 +156,9 @@ public class HmacUrl {
         }
 
         if (valueConverted == null) {
-            this.fields.remove(name);
+            ownFields().remove(name);
         } else {
-            this.fields.put(name, valueConverted);
+            ownFields().put(name, valueConverted);
         }
     }
 
@@ -147,7 +180,9 @@ public class HmacUrl {
     }
 
     protected void setExceptedField(String name) {
-        this.exceptedFields.add(name);
+        if (!this.exceptedFields.contains(name)) {
+            ownExceptedFields().add(name);
+        }
     }
 
     public Object isExceptedField(String name) {
@@ -155,11 +190,27 @@ public class HmacUrl {
     }
 
     protected void clearExceptedFields() {
-        this.exceptedFields.clear();
+        this.exceptedFields = new HashSet<>();
+        this.owned.add(Owned.EXCEPTED_FIELDS);
     }
 
     @Synchronized
     public String calculateHmac() throws HmacFieldException, HmacSignExcception {
+        if (this.context != null && !this.fields.containsKey(FIELD_HMAC_KID)) {
+            //the id of the signing key is part of the signed fields
+            String keyId = this.context.getSigningKey().getId();
+            if (keyId != null) {
+                setField(FIELD_HMAC_KID, keyId);
+            }
+        }
+        return computeHmac();
+    }
+
+    protected String computeHmac() throws HmacFieldException, HmacSignExcception {
+        if (this.context != null) {
+            setExceptedField(FIELD_HMAC);
+            return Hmac.create(this.context, this.fields, URL_VALUE_DELIMITER, URL_ITEM_DELIMITER, this.exceptedFields);
+        }
         String hmacParams = calculateParams(false);
         String hmacValue = Hmac.create(this.secret, this.encoding, this.algorithm.getAlgorithm(), hmacParams);
         return hmacValue;
@@ -189,71 +240,170 @@ public class HmacUrl {
         return url;
     }
 
+    /**
+     * Returns a read only view of the query fields of a url, each field is url decoded when first looked at.
+     */
     public Map<String, Object> getUrlFields(String url) throws HmacFieldException {
-        Map<String, Object> fields = null;
+        if (URL_VALUE_DELIMITER.length() == 1 && URL_ITEM_DELIMITER.length() == 1
+                && URL_VALUE_DELIMITER.charAt(0) == '=' && URL_ITEM_DELIMITER.charAt(0) == '&') {
+            return HmacUrlParser.index(url, getCharset());
+        }
         int intPosStart = url.indexOf("/?");
         int intPosEnd = url.lastIndexOf("#");
         if (intPosEnd == -1) {
             intPosEnd = url.length();
         }
 
-        String hmacParams = url.substring(intPosStart + 2, intPosEnd - 1);
-        fields = Hmac.toFields(hmacParams, this.encoding, URL_VALUE_DELIMITER, URL_ITEM_DELIMITER);
-        return fields;
+        String hmacParams = url.substring(intPosStart + 2, intPosEnd);
+        return Hmac.toFields(hmacParams, this.encoding, URL_VALUE_DELIMITER, URL_ITEM_DELIMITER);
     }
 
-    @Synchronized
-    public boolean validateUrl(String url, boolean throwExceptionOnExpiration) throws HmacFieldException, HmacSignExcception, HmacUrlExpiredException {
-        if (url.indexOf("?") < 0) {
-            throw new HmacFieldException("The url provided does not have query parameters");
+    protected Charset getCharset() throws HmacFieldException {
+        if (this.context != null && this.context.getEncoding().equals(this.encoding)) {
+            return this.context.getCharset();
         }
-        this.base = url.substring(0, url.indexOf("?") - 1);
-        int fragmentIndex = url.lastIndexOf("#");
-        this.fragment = (fragmentIndex > 0) ? url.substring(fragmentIndex + 1) : null;
-        String queryParameters = url.substring(this.base.length() + 2, url.length() - ((this.fragment == null) ? 0 : this.fragment.length() + 1));
+        try {
+            return Charset.forName(this.encoding);
+        } catch (final IllegalArgumentException exception) {
+            throw new HmacFieldException("Unsupported Decoding Exception for encoding: " + this.encoding, exception);
+        }
+    }
 
-        Map<String, Object> queryParamMap = Hmac.toFields(queryParameters, this.encoding, URL_VALUE_DELIMITER, URL_ITEM_DELIMITER);
-        if (queryParamMap.containsKey(FIELD_HMAC_TIMESTAMP)) {
-            queryParamMap.put(FIELD_HMAC_TIMESTAMP, Hmac.getValueAsDate(queryParamMap.get(FIELD_HMAC_TIMESTAMP)));
+    @Synchronized
+    public boolean validateUrl(String url, boolean throwExceptionOnExpiration) throws HmacFieldException, HmacSignExcception, HmacUrlExpiredException {
+        //structurally invalid urls are turned down before they are parsed and hashed when the context has a guard
+        HmacUrlGuard guard = (this.context != null) ? this.context.getUrlGuard() : null;
+        if (guard != null && !guard.check(url).isValid()) {
+            return reject(HmacUrlStatus.REJECTED, url);
         }
-        if (queryParamMap.containsKey(FIELD_HMAC_TTL)) {
-            queryParamMap.put(FIELD_HMAC_TTL, Hmac.getValueAsLong(queryParamMap.get(FIELD_HMAC_TTL)));
+        HmacParsedUrl parsedUrl;
+        Map<String, Object> queryParamMap;
+        try {
+            parsedUrl = HmacUrlParser.parse(url, getCharset());
+            queryParamMap = parsedUrl.getFields();
+            if (queryParamMap.containsKey(FIELD_HMAC_TIMESTAMP)) {
+                queryParamMap.put(FIELD_HMAC_TIMESTAMP, Hmac.getValueAsDate(queryParamMap.get(FIELD_HMAC_TIMESTAMP)));
+            }
+            if (queryParamMap.containsKey(FIELD_HMAC_TTL)) {
+                queryParamMap.put(FIELD_HMAC_TTL, Hmac.getValueAsLong(queryParamMap.get(FIELD_HMAC_TTL)));
+            }
+        } catch (HmacFieldException exception) {
+            //a malformed url is recorded as rejected before the failure is reported
+            audit(HmacUrlStatus.REJECTED, url);
+            throw exception;
         }
+        this.base = parsedUrl.getBase();
+        this.fragment = parsedUrl.getFragment();
 
         clearFields();
         for (Map.Entry<String, Object> entry : queryParamMap.entrySet()) {
             setField(entry.getKey(), entry.getValue());
         }
 
-        String queryHmac = getHmac();
-        String calcHmac = calculateHmac();
-        if (queryHmac.equals(calcHmac)) {
+        //the presented hmac is decoded once and compared in constant time with the raw hash
+        byte[] presented = Hmac.decode(getHmac());
+        if (presented == null || (this.context != null && presented.length != this.context.getMacLength())) {
+            return reject(HmacUrlStatus.INVALID_SIGNATURE, url);
+        }
+        long now = currentTimeMillis();
+        HmacKey key = null;
+        if (this.context != null) {
+            //stale links are turned down before paying for the hmac when the context asks for it
+            if (this.context.isExpiryPreCheck() && !checkExpiration(url, throwExceptionOnExpiration, now)) {
+                return false;
+            }
+            key = this.context.getKey(this.fields);
+            if (key == null || key.isRetired(now)) {
+                return reject(HmacUrlStatus.INVALID_SIGNATURE, url);
+            }
+        }
+        if (verifyHmac(presented, key)) {
             //test expiration
-            if (getTimeToLive() != null) {
-                if (getTimestamp() == null) {
-                    if (throwExceptionOnExpiration) {
-                        throw new HmacUrlExpiredException("The url has ttl and no hmac date");
-                    } else {
-                        return false;
-                    }
-                }
-                long hmacDateMillis = this.getTimestamp().getTime();
-                long hmacExpireMillis = hmacDateMillis + (getTimeToLive() * 1000);
-                boolean expired = (System.currentTimeMillis() >= hmacExpireMillis);
-                if (expired) {
-                    if (throwExceptionOnExpiration) {
-                        throw new HmacUrlExpiredException("The url has expired");
-                    } else {
-                        return false;
-                    }
-                } else {
-                    return true;
-                }
-            } else {
-                return true;
+            if (!checkExpiration(url, throwExceptionOnExpiration, now)) {
+                return false;
+            }
+            if (!markUsed(presented, (getTimeToLive() != null) ? getTimestamp().getTime() + (getTimeToLive() * 1000) : HmacUrlVerification.NONE, now)) {
+                return reject(HmacUrlStatus.REPLAYED, url);
+            }
+            return true;
+        }
+        return reject(HmacUrlStatus.INVALID_SIGNATURE, url);
+    }
+
+    /**
+     * Compares a presented raw hmac with the hash of the fields.
+     *
+     * @param key the key of the context picked by the hmac-kid field, null without a context
+     */
+    protected boolean verifyHmac(byte[] presented, HmacKey key) throws HmacFieldException, HmacSignExcception {
+        if (this.context != null) {
+            setExceptedField(FIELD_HMAC);
+            Mac mac = key.acquireMac();
+            try {
+                return Hmac.verifyRaw(presented, mac, this.context, this.fields, URL_VALUE_DELIMITER, URL_ITEM_DELIMITER, this.exceptedFields);
+            } finally {
+                key.releaseMac(mac);
             }
         }
+        String hmacParams = calculateParams(false);
+        return Hmac.isEqual(Hmac.createRaw(this.secret, this.encoding, this.algorithm.getAlgorithm(), hmacParams), presented);
+    }
+
+    protected boolean checkExpiration(boolean throwExceptionOnExpiration, long now) throws HmacUrlExpiredException {
+        return checkExpiration(null, throwExceptionOnExpiration, now);
+    }
+
+    protected boolean checkExpiration(String url, boolean throwExceptionOnExpiration, long now) throws HmacUrlExpiredException {
+        HmacUrlStatus status = expiration(now);
+        if (status.isValid()) {
+            return true;
+        }
+        audit(status, url);
+        if (throwExceptionOnExpiration) {
+            throw new HmacUrlExpiredException((status == HmacUrlStatus.MISSING_TIMESTAMP) ? "The url has ttl and no hmac date" : "The url has expired");
+        }
         return false;
     }
 
+    protected HmacUrlStatus expiration(long now) {
+        if (getTimeToLive() == null) {
+            return HmacUrlStatus.VALID;
+        }
+        if (getTimestamp() == null) {
+            return HmacUrlStatus.MISSING_TIMESTAMP;
+        }
+        long hmacExpireMillis = this.getTimestamp().getTime() + (getTimeToLive() * 1000);
+        return (now >= hmacExpireMillis) ? HmacUrlStatus.EXPIRED : HmacUrlStatus.VALID;
+    }
+
+    /**
+     * Reports a rejected url to the audit sink of the context, if any.
+     */
+    protected void audit(HmacUrlStatus status, String url) {
+        if (this.context != null) {
+            this.context.audit(status, url);
+        }
+    }
+
+    private boolean reject(HmacUrlStatus status, String url) {
+        audit(status, url);
+        return false;
+    }
+
+    /**
+     * Applies the replay protection of the context, if any, to a valid url.
+     * Urls without an expiration cannot be guarded and are rejected when the protection is enabled.
+     */
+    protected boolean markUsed(byte[] hmac, long expiresAt, long now) {
+        HmacReplayGuard replayGuard = (this.context != null) ? this.context.getReplayGuard() : null;
+        if (replayGuard == null) {
+            return true;
+        }
+        return expiresAt != HmacUrlVerification.NONE && replayGuard.markUsed(hmac, expiresAt, now);
+    }
+
+    protected long currentTimeMillis() {
+        return (this.context != null) ? this.context.getClock().millis() : System.currentTimeMillis();
+    }
+
 }
@@ -0,0 +1,199 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
+
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read only view of the query fields of a url, built by {@link HmacUrlParser#index(CharSequence, Charset)}.
+ * The url is scanned once for the offsets of the names and values,
+ * a name or a value is url decoded only when it is first looked at and then kept.
+ * As with the url parser the last value of a repeated field wins. The view is not thread safe.
+ */
+public final class HmacUrlFields extends AbstractMap<String, Object> {
+    private static final int SLOTS = 4;
+
+    private final CharSequence url;
+    private final Charset charset;
+    private final String base;
+    private final String fragment;
+    //name start, value start, value end and escape flags of every item
+    private int[] items = new int[SLOTS * 8];
+    private int count;
+    private String[] names;
+    private String[] values;
+    //positions of the items holding the last value of each name, built when the view is iterated
+    private int[] distinct;
+    private EntrySet entrySet;
+
+    HmacUrlFields(CharSequence url, Charset charset, String base, String fragment) {
+        this.url = url;
+        this.charset = charset;
+        this.base = base;
+        this.fragment = fragment;
+    }
+
+    public String getBase() {
+        return this.base;
+    }
+
+    public String getFragment() {
+        return this.fragment;
+    }
+
+    void add(int nameStart, int valueStart, int valueEnd, int flags) {
+        if ((this.count + 1) * SLOTS > this.items.length) {
+            this.items = Arrays.copyOf(this.items, this.items.length * 2);
+        }
+        int slot = this.count * SLOTS;
+        this.items[slot] = nameStart;
+        this.items[slot + 1] = valueStart;
+        this.items[slot + 2] = valueEnd;
+        this.items[slot + 3] = flags;
+        this.count++;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = indexOf(key);
+        return (index >= 0) ? valueAt(index) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return distinct().length;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if (this.entrySet == null) {
+            this.entrySet = new EntrySet();
+        }
+        return this.entrySet;
+    }
+
+    private int indexOf(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+        String name = (String) key;
+        for (int i = this.count - 1; i >= 0; i--) {
+            if (nameEquals(i, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares a name with the raw characters of the url when the name holds no escape, without decoding it.
+     */
+    private boolean nameEquals(int index, String name) {
+        int slot = index * SLOTS;
+        if ((this.items[slot + 3] & HmacUrlParser.NAME_NEEDS_DECODING) != 0) {
+            return name.equals(nameAt(index));
+        }
+        int start = this.items[slot];
+        int end = this.items[slot + 1] - 1;
+        if (end - start != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (this.url.charAt(start + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String nameAt(int index) {
+        if (this.names == null) {
+            this.names = new String[this.count];
+        }
+        if (this.names[index] == null) {
+            int slot = index * SLOTS;
+            this.names[index] = decode(this.items[slot], this.items[slot + 1] - 1, this.items[slot + 3] & HmacUrlParser.NAME_NEEDS_DECODING);
+        }
+        return this.names[index];
+    }
+
+    private String valueAt(int index) {
+        if (this.values == null) {
+            this.values = new String[this.count];
+        }
+        if (this.values[index] == null) {
+            int slot = index * SLOTS;
+            this.values[index] = decode(this.items[slot + 1], this.items[slot + 2], this.items[slot + 3] & HmacUrlParser.VALUE_NEEDS_DECODING);
+        }
+        return this.values[index];
+    }
+
+    private String decode(int start, int end, int flags) {
+        if (flags == 0) {
+            return this.url.subSequence(start, end).toString();
+        }
+        try {
+            return HmacUrlParser.decode(this.url, start, end, this.charset);
+        } catch (HmacFieldException exception) {
+            //the escapes were checked by the scan
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    private int[] distinct() {
+        if (this.distinct == null) {
+            Set<String> seen = new HashSet<>(this.count * 2);
+            int[] positions = new int[this.count];
+            int size = 0;
+            for (int i = this.count - 1; i >= 0; i--) {
+                if (seen.add(nameAt(i))) {
+                    positions[size++] = i;
+                }
+            }
+            this.distinct = Arrays.copyOf(positions, size);
+        }
+        return this.distinct;
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+        @Override
+        public int size() {
+            return distinct().length;
+        }
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            final int[] positions = distinct();
+            return new Iterator<Entry<String, Object>>() {
+                private int next = positions.length - 1;
+
+                @Override
+                public boolean hasNext() {
+                    return this.next >= 0;
+                }
+
+                @Override
+                public Entry<String, Object> next() {
+                    if (this.next < 0) {
+                        throw new NoSuchElementException();
+                    }
+                    int index = positions[this.next--];
+                    return new SimpleImmutableEntry<>(nameAt(index), valueAt(index));
+                }
+            };
+        }
+    }
+
+}
@@ -0,0 +1,227 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC;
+
+/**
+ * Structural pre-filter of the signed urls of a hmac context.
+ * A single pass over the raw query checks the url length, the hmac and the required fields
+ * without decoding the values or building a field map, so that a flood of forged urls costs no parse and no hash.
+ * The query bounds are the same as with {@link HmacUrlParser}: from the first '?' to the last '#'.
+ */
+public class HmacUrlGuard {
+    private static final int MAX_REQUIRED_FIELDS = 64;
+
+    private final Charset charset;
+    private final int maxUrlLength;
+    private final int macLength;
+    //length of the padded Base64 form of a hmac, the only form accepted by Hmac.decode
+    private final int encodedLength;
+    private final String[] requiredFields;
+    private final long requiredMask;
+
+    /**
+     * @param charset        the charset of the context, used for field names holding escapes
+     * @param maxUrlLength   the maximum length of a url or token
+     * @param macLength      the length of the raw hmac of the context algorithm
+     * @param requiredFields the fields every url must hold besides the hmac, at most 64
+     */
+    public HmacUrlGuard(Charset charset, int maxUrlLength, int macLength, Set<String> requiredFields) {
+        this.charset = charset;
+        this.maxUrlLength = maxUrlLength;
+        this.macLength = macLength;
+        this.encodedLength = 4 * ((macLength + 2) / 3);
+        this.requiredFields = (requiredFields != null)
+                ? requiredFields.stream().filter(t -> !FIELD_HMAC.equals(t)).sorted().toArray(String[]::new)
+                : new String[0];
+        if (this.requiredFields.length > MAX_REQUIRED_FIELDS) {
+            throw new IllegalArgumentException("At most " + MAX_REQUIRED_FIELDS + " required fields are supported");
+        }
+        this.requiredMask = (this.requiredFields.length == MAX_REQUIRED_FIELDS) ? -1L : (1L << this.requiredFields.length) - 1;
+    }
+
+    /**
+     * Checks a signed url before it is parsed.
+     *
+     * @param url the signed url
+     * @return {@link HmacUrlStatus#VALID} when the url may be verified, {@link HmacUrlStatus#REJECTED} otherwise
+     */
+    public HmacUrlStatus check(CharSequence url) {
+        if (!checkLength(url)) {
+            return HmacUrlStatus.REJECTED;
+        }
+        int length = url.length();
+        int queryStart = -1;
+        for (int i = 0; i < length; i++) {
+            if (url.charAt(i) == '?') {
+                queryStart = i + 1;
+                break;
+            }
+        }
+        if (queryStart < 0) {
+            return HmacUrlStatus.REJECTED;
+        }
+        int queryEnd = length;
+        for (int i = length - 1; i >= queryStart; i--) {
+            if (url.charAt(i) == '#') {
+                queryEnd = i;
+                break;
+            }
+        }
+        boolean hmac = false;
+        long found = 0;
+        int itemStart = queryStart;
+        while (itemStart <= queryEnd) {
+            int itemEnd = itemStart;
+            while (itemEnd < queryEnd && url.charAt(itemEnd) != '&') {
+                itemEnd++;
+            }
+            if (itemEnd > itemStart) {
+                int nameEnd = indexOf(url, '=', itemStart, itemEnd);
+                if (nameEnd < 0) {
+                    return HmacUrlStatus.REJECTED;
+                }
+                int valueEnd = indexOf(url, '=', nameEnd + 1, itemEnd);
+                //names are compared in place, only names holding escapes are decoded
+                String name = null;
+                if (indexOf(url, '%', itemStart, nameEnd) >= 0 || indexOf(url, '+', itemStart, nameEnd) >= 0) {
+                    try {
+                        name = HmacUrlParser.decode(url, itemStart, nameEnd, this.charset);
+                    } catch (HmacFieldException exception) {
+                        return HmacUrlStatus.REJECTED;
+                    }
+                }
+                if (nameEquals(url, itemStart, nameEnd, name, FIELD_HMAC)) {
+                    //as with the parser the last hmac wins
+                    hmac = isHmac(url, nameEnd + 1, (valueEnd < 0) ? itemEnd : valueEnd, true);
+                } else {
+                    for (int j = 0; j < this.requiredFields.length; j++) {
+                        if (nameEquals(url, itemStart, nameEnd, name, this.requiredFields[j])) {
+                            found |= 1L << j;
+                            break;
+                        }
+                    }
+                }
+            }
+            itemStart = itemEnd + 1;
+        }
+        return (hmac && found == this.requiredMask) ? HmacUrlStatus.VALID : HmacUrlStatus.REJECTED;
+    }
+
+    /**
+     * Checks already decoded fields before they are verified.
+     *
+     * @param fields the decoded fields, including the hmac field
+     * @return {@link HmacUrlStatus#VALID} when the fields may be verified, {@link HmacUrlStatus#REJECTED} otherwise
+     */
+    public HmacUrlStatus check(Map<String, Object> fields) {
+        Object hmac = fields.get(FIELD_HMAC);
+        if (hmac == null) {
+            return HmacUrlStatus.REJECTED;
+        }
+        String value = String.valueOf(hmac);
+        if (!isHmac(value, 0, value.length(), false)) {
+            return HmacUrlStatus.REJECTED;
+        }
+        for (String name : this.requiredFields) {
+            if (!fields.containsKey(name)) {
+                return HmacUrlStatus.REJECTED;
+            }
+        }
+        return HmacUrlStatus.VALID;
+    }
+
+    /**
+     * @param value a url or a token
+     * @return true when the value is not longer than the limit of the context
+     */
+    public boolean checkLength(CharSequence value) {
+        return value != null && value.length() <= this.maxUrlLength;
+    }
+
+    public int getMaxUrlLength() {
+        return this.maxUrlLength;
+    }
+
+    /**
+     * Checks that a value is the Base64 form of a hmac of the context length,
+     * in a url the '+', '/' and '=' characters of the hmac are escaped.
+     */
+    private boolean isHmac(CharSequence value, int start, int end, boolean escaped) {
+        if (end - start < this.encodedLength) {
+            return false;
+        }
+        byte[] encoded = new byte[this.encodedLength];
+        int length = 0;
+        int i = start;
+        while (i < end) {
+            char c = value.charAt(i);
+            if (escaped && c == '+') {
+                //a raw plus is decoded as a space
+                return false;
+            }
+            if (escaped && c == '%') {
+                if (i + 2 >= end) {
+                    return false;
+                }
+                c = unescape(value.charAt(i + 1), value.charAt(i + 2));
+                i += 3;
+            } else {
+                i++;
+            }
+            if (length == this.encodedLength || !isBase64(c)) {
+                return false;
+            }
+            encoded[length++] = (byte) c;
+        }
+        if (length < this.encodedLength) {
+            return false;
+        }
+        byte[] raw = Hmac.decode(new String(encoded, StandardCharsets.US_ASCII));
+        return raw != null && raw.length == this.macLength;
+    }
+
+    /**
+     * Compares a field name with the decoded name when it holds escapes, else with the raw characters of the url.
+     */
+    private static boolean nameEquals(CharSequence url, int start, int end, String decoded, String name) {
+        if (decoded != null) {
+            return decoded.equals(name);
+        }
+        if (end - start != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (url.charAt(start + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence url, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (url.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static char unescape(char high, char low) {
+        int h = Character.digit(high, 16);
+        int l = Character.digit(low, 16);
+        return (h < 0 || l < 0) ? 0 : (char) ((h << 4) | l);
+    }
+
+    private static boolean isBase64(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '+' || c == '/' || c == '=';
+    }
+
+}
@@ -0,0 +1,245 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Single pass scanner for signed urls and query strings.
+ * The base, query and fragment boundaries and the field offsets are found in one walk over the characters,
+ * only the names and values holding an escape ('%' or '+') are url decoded.
+ */
+public final class HmacUrlParser {
+    private static final int NEEDS_DECODING = 1;
+    static final int NAME_NEEDS_DECODING = 1;
+    static final int VALUE_NEEDS_DECODING = 2;
+
+    private HmacUrlParser() {
+    }
+
+    /**
+     * Splits a url in base, fragment and query fields, the same way as {@link HmacUrl#validateUrl(String, boolean)}:
+     * the base ends one character before the first '?' and the fragment starts after the last '#'.
+     *
+     * @param url     the url to be parsed
+     * @param charset the charset used to decode the query fields
+     * @return the parsed url
+     */
+    public static HmacParsedUrl parse(CharSequence url, Charset charset) throws HmacFieldException {
+        int length = url.length();
+        int queryStart = -1;
+        for (int i = 0; i < length; i++) {
+            if (url.charAt(i) == '?') {
+                queryStart = i + 1;
+                break;
+            }
+        }
+        if (queryStart < 0) {
+            throw new HmacFieldException("The url provided does not have query parameters");
+        }
+        Map<String, Object> fields = new HashMap<>();
+        int queryEnd = scan(url, queryStart, length, charset, '=', '&', true, fields);
+        String base = url.subSequence(0, Math.max(queryStart - 2, 0)).toString();
+        String fragment = (queryEnd < length) ? url.subSequence(queryEnd + 1, length).toString() : null;
+        return new HmacParsedUrl(base, fragment, queryStart, queryEnd, fields);
+    }
+
+    /**
+     * Indexes the query fields of a url without decoding them, names and values are decoded when first looked at.
+     * The query bounds are the same as with {@link #parse(CharSequence, Charset)},
+     * malformed items and escapes are reported here rather than on access.
+     *
+     * @param url     the url to be indexed
+     * @param charset the charset used to decode the query fields
+     * @return the lazy view of the query fields
+     */
+    public static HmacUrlFields index(CharSequence url, Charset charset) throws HmacFieldException {
+        int length = url.length();
+        int queryStart = -1;
+        for (int i = 0; i < length; i++) {
+            if (url.charAt(i) == '?') {
+                queryStart = i + 1;
+                break;
+            }
+        }
+        if (queryStart < 0) {
+            throw new HmacFieldException("The url provided does not have query parameters");
+        }
+        int fragmentStart = -1;
+        for (int i = length - 1; i >= queryStart; i--) {
+            if (url.charAt(i) == '#') {
+                fragmentStart = i;
+                break;
+            }
+        }
+        int queryEnd = (fragmentStart >= 0) ? fragmentStart : length;
+        String base = url.subSequence(0, Math.max(queryStart - 2, 0)).toString();
+        String fragment = (fragmentStart >= 0) ? url.subSequence(fragmentStart + 1, length).toString() : null;
+        HmacUrlFields fields = new HmacUrlFields(url, charset, base, fragment);
+        scan(url, queryStart, queryEnd, charset, '=', '&', false, fields);
+        return fields;
+    }
+
+    /**
+     * Scans the query fields between start and end into the given map.
+     *
+     * @param values         the characters holding the query
+     * @param start          the position of the first query character
+     * @param end            the position after the last query character
+     * @param charset        the charset used to decode names and values
+     * @param valueDelimiter the delimiter between a field name and its value
+     * @param itemDelimiter  the delimiter between fields
+     * @param fields         the map receiving the decoded fields
+     * @return the map receiving the decoded fields
+     */
+    public static Map<String, Object> parseFields(CharSequence values,
+                                                  int start,
+                                                  int end,
+                                                  Charset charset,
+                                                  char valueDelimiter,
+                                                  char itemDelimiter,
+                                                  Map<String, Object> fields) throws HmacFieldException {
+        scan(values, start, end, charset, valueDelimiter, itemDelimiter, false, fields);
+        return fields;
+    }
+
+    /**
+     * Scans the query fields, when a fragment is expected the scan stops at the last '#' of the range.
+     *
+     * @return the position of the fragment delimiter or end when there is no fragment
+     */
+    private static int scan(CharSequence values,
+                            int start,
+                            int end,
+                            Charset charset,
+                            char valueDelimiter,
+                            char itemDelimiter,
+                            boolean fragment,
+                            Map<String, Object> fields) throws HmacFieldException {
+        int itemStart = start;
+        int valueStart = -1;
+        int valueEnd = -1;
+        int nameFlags = 0;
+        int valueFlags = 0;
+        int queryEnd = end;
+        int i = start;
+        while (i <= queryEnd) {
+            char c = (i < queryEnd) ? values.charAt(i) : itemDelimiter;
+            if (fragment && c == '#' && queryEnd == end) {
+                //the query ends at the last '#', only the tail after this one is searched for it
+                queryEnd = lastIndexOf(values, '#', i, end);
+                if (i == queryEnd) {
+                    c = itemDelimiter;
+                }
+            }
+            if (i == queryEnd || c == itemDelimiter) {
+                if (i > itemStart) {
+                    if (valueStart < 0) {
+                        throw new HmacFieldException("Missing value for field code: " + values.subSequence(itemStart, i));
+                    }
+                    if (fields instanceof HmacUrlFields) {
+                        ((HmacUrlFields) fields).add(itemStart, valueStart, (valueEnd < 0) ? i : valueEnd,
+                                ((nameFlags != 0) ? NAME_NEEDS_DECODING : 0) | ((valueFlags != 0) ? VALUE_NEEDS_DECODING : 0));
+                    } else {
+                        String name = decode(values, itemStart, valueStart - 1, charset, nameFlags);
+                        String value = decode(values, valueStart, (valueEnd < 0) ? i : valueEnd, charset, valueFlags);
+                        fields.put(name, value);
+                    }
+                }
+                itemStart = i + 1;
+                valueStart = -1;
+                valueEnd = -1;
+                nameFlags = 0;
+                valueFlags = 0;
+            } else if (c == valueDelimiter) {
+                if (valueStart < 0) {
+                    valueStart = i + 1;
+                } else if (valueEnd < 0) {
+                    //as with String.split only the part up to the next value delimiter is the value
+                    valueEnd = i;
+                }
+            } else if (c == '%' || c == '+') {
+                if (c == '%' && fields instanceof HmacUrlFields && (valueStart < 0 || valueEnd < 0)) {
+                    //the lazy view decodes later, the escapes it will decode are checked now
+                    checkEscape(values, i, queryEnd);
+                }
+                if (valueStart < 0) {
+                    nameFlags = NEEDS_DECODING;
+                } else {
+                    valueFlags = NEEDS_DECODING;
+                }
+            }
+            i++;
+        }
+        return queryEnd;
+    }
+
+    public static String decode(CharSequence values, int start, int end, Charset charset) throws HmacFieldException {
+        return decode(values, start, end, charset, NEEDS_DECODING);
+    }
+
+    /**
+     * Url decodes a range of characters the same way as {@link java.net.URLDecoder#decode(String, String)}.
+     */
+    private static String decode(CharSequence values, int start, int end, Charset charset, int flags) throws HmacFieldException {
+        if ((flags & NEEDS_DECODING) == 0) {
+            return values.subSequence(start, end).toString();
+        }
+        StringBuilder decoded = new StringBuilder(end - start);
+        byte[] bytes = null;
+        int i = start;
+        while (i < end) {
+            char c = values.charAt(i);
+            if (c == '+') {
+                decoded.append(' ');
+                i++;
+            } else if (c == '%') {
+                if (bytes == null) {
+                    bytes = new byte[(end - i) / 3];
+                }
+                int position = 0;
+                while (i + 2 < end && c == '%') {
+                    int high = Character.digit(values.charAt(i + 1), 16);
+                    int low = Character.digit(values.charAt(i + 2), 16);
+                    if (high < 0 || low < 0) {
+                        throw new HmacFieldException("Illegal hex characters in escape (%) pattern for " + values.subSequence(start, end));
+                    }
+                    bytes[position++] = (byte) ((high << 4) + low);
+                    i += 3;
+                    if (i < end) {
+                        c = values.charAt(i);
+                    }
+                }
+                if (i < end && c == '%') {
+                    throw new HmacFieldException("Incomplete trailing escape (%) pattern for " + values.subSequence(start, end));
+                }
+                decoded.append(new String(bytes, 0, position, charset));
+            } else {
+                decoded.append(c);
+                i++;
+            }
+        }
+        return decoded.toString();
+    }
+
+    private static void checkEscape(CharSequence values, int i, int end) throws HmacFieldException {
+        if (i + 2 >= end) {
+            throw new HmacFieldException("Incomplete trailing escape (%) pattern for " + values.subSequence(i, end));
+        }
+        if (Character.digit(values.charAt(i + 1), 16) < 0 || Character.digit(values.charAt(i + 2), 16) < 0) {
+            throw new HmacFieldException("Illegal hex characters in escape (%) pattern for " + values.subSequence(i, i + 3));
+        }
+    }
+
+    private static int lastIndexOf(CharSequence values, char c, int from, int end) {
+        for (int i = end - 1; i > from; i--) {
+            if (values.charAt(i) == c) {
+                return i;
+            }
+        }
+        return from;
+    }
+
+}
@@ -0,0 +1,20 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+/**
+ * Outcome of the verification of a signed url.
+ */
+public enum HmacUrlStatus {
+    VALID,
+    INVALID_SIGNATURE,
+    EXPIRED,
+    MISSING_TIMESTAMP,
+    REPLAYED,
+    //turned down by the guard of the context before it was parsed and hashed
+    REJECTED,
+    //turned down unverified, its client kept sending urls failing verification
+    THROTTLED;
+
+    public boolean isValid() {
+        return this == VALID;
+    }
+}
@@ -0,0 +1,192 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacSignExcception;
+
+import javax.crypto.Mac;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC;
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC_KID;
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.URL_ITEM_DELIMITER;
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.URL_VALUE_DELIMITER;
+
+/**
+ * Signs urls sharing a set of fixed fields, only the variable fields are given for every url.
+ * The fixed fields are sorted, encoded and turned into the start of the signed message once per signing key.
+ * When all the variable field names sort after the fixed ones, the Mac state after hashing the fixed part
+ * is cloned for every signature and only the variable part is hashed, otherwise the whole message is hashed.
+ * A template is immutable and can be shared by all threads.
+ */
+public class HmacUrlTemplate {
+    private final HmacContext context;
+    private final Map<String, Object> fixedFields;
+    private final Set<String> exceptedFields;
+    private final String base;
+    private final String fragment;
+    private volatile Prefix prefix;
+
+    public HmacUrlTemplate(HmacContext context, Map<String, Object> fixedFields, Set<String> exceptedFields, String base, String fragment) throws HmacFieldException {
+        this.context = context;
+        Map<String, Object> ff = new TreeMap<>(fixedFields);
+        for (Map.Entry<String, Object> entry : ff.entrySet()) {
+            if (Hmac.getValueAsString(entry.getValue()) == null) {
+                throw new HmacFieldException("Missing value for field code: " + entry.getKey());
+            }
+        }
+        this.fixedFields = Collections.unmodifiableMap(ff);
+        this.exceptedFields = context.getExceptedFields(exceptedFields);
+        //a null base gives urls relative to the host
+        String b = (base != null) ? base : "";
+        this.base = b.endsWith("/") ? b.substring(0, b.length() - 1) : b;
+        this.fragment = (fragment != null && fragment.startsWith("#")) ? fragment.substring(1) : fragment;
+    }
+
+    public HmacContext getContext() {
+        return this.context;
+    }
+
+    public Map<String, Object> getFixedFields() {
+        return this.fixedFields;
+    }
+
+    /**
+     * Signs the fixed and the variable fields.
+     *
+     * @param variableFields the fields specific to the url
+     * @param lease          the lease providing the Mac of the signing key, null to acquire one for this call
+     * @return the raw hmac bytes
+     */
+    public byte[] calculateRaw(Map<String, Object> variableFields, HmacMacLease lease) throws HmacFieldException, HmacSignExcception {
+        Prefix p = prefix();
+        boolean cloneable = p.prototype != null;
+        for (String name : variableFields.keySet()) {
+            if (p.fields.containsKey(name)) {
+                throw new HmacFieldException("Field " + name + " is a fixed field of the template");
+            }
+            if (!this.exceptedFields.contains(name) && p.lastName != null && name.compareTo(p.lastName) <= 0) {
+                cloneable = false;
+            }
+        }
+        boolean hasTail = false;
+        for (String name : variableFields.keySet()) {
+            if (!this.exceptedFields.contains(name)) {
+                hasTail = true;
+                break;
+            }
+        }
+        if (cloneable && hasTail) {
+            Mac mac;
+            try {
+                mac = (Mac) p.prototype.clone();
+            } catch (CloneNotSupportedException exception) {
+                mac = null;
+            }
+            if (mac != null) {
+                return Hmac.createRaw(mac, this.context, variableFields, URL_VALUE_DELIMITER, URL_ITEM_DELIMITER, this.exceptedFields);
+            }
+        }
+        Map<String, Object> fields = new HmacFields(p.fields);
+        fields.putAll(variableFields);
+        if (lease != null) {
+            return Hmac.createRaw(lease.acquire(p.key), this.context, fields, URL_VALUE_DELIMITER, URL_ITEM_DELIMITER, this.exceptedFields);
+        }
+        Mac mac = p.key.acquireMac();
+        try {
+            return Hmac.createRaw(mac, this.context, fields, URL_VALUE_DELIMITER, URL_ITEM_DELIMITER, this.exceptedFields);
+        } finally {
+            p.key.releaseMac(mac);
+        }
+    }
+
+    public String calculateHmac(Map<String, Object> variableFields) throws HmacFieldException, HmacSignExcception {
+        return Hmac.encode(calculateRaw(variableFields, null));
+    }
+
+    /**
+     * Builds the signed url, the pre-encoded fixed fields followed by the variable fields and the hmac.
+     *
+     * @param variableFields the fields specific to the url
+     * @param lease          the lease providing the Mac of the signing key, null to acquire one for this call
+     * @return the signed url
+     */
+    public String calculateUrl(Map<String, Object> variableFields, HmacMacLease lease) throws HmacFieldException, HmacSignExcception {
+        Prefix p = prefix();
+        byte[] hmac = calculateRaw(variableFields, lease);
+        Map<String, Object> urlFields = new HmacFields(variableFields);
+        urlFields.put(FIELD_HMAC, Hmac.encode(hmac));
+        String variableQuery = Hmac.toQueryString(this.context, urlFields, URL_VALUE_DELIMITER, URL_ITEM_DELIMITER, null);
+        StringBuilder url = new StringBuilder(this.base.length() + p.query.length() + variableQuery.length() + 16);
+        url.append(this.base).append("/?");
+        if (!p.query.isEmpty()) {
+            url.append(p.query).append(URL_ITEM_DELIMITER);
+        }
+        url.append(variableQuery);
+        if (this.fragment != null && !this.fragment.isEmpty()) {
+            url.append('#').append(this.fragment);
+        }
+        return url.toString();
+    }
+
+    public String calculateUrl(Map<String, Object> variableFields) throws HmacFieldException, HmacSignExcception {
+        return calculateUrl(variableFields, null);
+    }
+
+    /**
+     * Returns the fixed part for the current signing key, rebuilt when the key rotates.
+     */
+    private Prefix prefix() throws HmacFieldException, HmacSignExcception {
+        HmacKey key = this.context.getSigningKey();
+        Prefix p = this.prefix;
+        if (p == null || p.key != key) {
+            p = new Prefix(key);
+            this.prefix = p;
+        }
+        return p;
+    }
+
+    private final class Prefix {
+        private final HmacKey key;
+        private final Map<String, Object> fields;
+        private final String lastName;
+        private final String query;
+        private final Mac prototype;
+
+        private Prefix(HmacKey key) throws HmacFieldException, HmacSignExcception {
+            this.key = key;
+            TreeMap<String, Object> f = new TreeMap<>(HmacUrlTemplate.this.fixedFields);
+            if (key.getId() != null) {
+                f.put(FIELD_HMAC_KID, key.getId());
+            }
+            this.fields = Collections.unmodifiableMap(f);
+            String last = null;
+            for (String name : f.keySet()) {
+                if (!HmacUrlTemplate.this.exceptedFields.contains(name)) {
+                    last = name;
+                }
+            }
+            this.lastName = last;
+            String encoding = HmacUrlTemplate.this.context.getEncoding();
+            this.query = Hmac.toQueryString(f, encoding, URL_VALUE_DELIMITER, URL_ITEM_DELIMITER, null);
+            this.prototype = (last != null) ? prototype(f, encoding) : null;
+        }
+
+        private Mac prototype(Map<String, Object> f, String encoding) throws HmacFieldException, HmacSignExcception {
+            String message = Hmac.toQueryString(f, encoding, URL_VALUE_DELIMITER, URL_ITEM_DELIMITER, HmacUrlTemplate.this.exceptedFields) + URL_ITEM_DELIMITER;
+            Mac mac = this.key.acquireMac();
+            try {
+                mac.update(message.getBytes(HmacUrlTemplate.this.context.getCharset()));
+                return (Mac) mac.clone();
+            } catch (CloneNotSupportedException exception) {
+                return null;
+            } finally {
+                mac.reset();
+                this.key.releaseMac(mac);
+            }
+        }
+    }
+
+}
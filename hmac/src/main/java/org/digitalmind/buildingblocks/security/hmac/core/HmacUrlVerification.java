@@ -0,0 +1,27 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * Immutable result of the verification of a signed url, holding the status and the parsed fields.
+ * The hmac-ts and hmac-ttl fields are also given as primitives, {@link #NONE} when absent.
+ */
+@Getter
+@AllArgsConstructor
+public class HmacUrlVerification {
+    public static final long NONE = Long.MIN_VALUE;
+
+    private final HmacUrlStatus status;
+    private final String base;
+    private final String fragment;
+    private final Map<String, Object> fields;
+    private final long timestamp;
+    private final long timeToLive;
+
+    public boolean isValid() {
+        return this.status.isValid();
+    }
+}
@@ -0,0 +1,302 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacSignExcception;
+
+import javax.crypto.Mac;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC;
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC_TIMESTAMP;
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC_TTL;
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.URL_ITEM_DELIMITER;
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.URL_VALUE_DELIMITER;
+
+/**
+ * Stateless verifier of signed urls for a hmac context.
+ * Unlike {@link HmacUrl#validateUrl(String, boolean)} nothing is stored on the verifier,
+ * a single instance is shared by all threads validating urls of the context.
+ */
+public class HmacUrlVerifier {
+    private final HmacContext context;
+
+    public HmacUrlVerifier(HmacContext context) {
+        this.context = context;
+    }
+
+    public HmacContext getContext() {
+        return this.context;
+    }
+
+    /**
+     * Verifies the signature and the expiration of a signed url.
+     *
+     * @param url            the signed url
+     * @param exceptedFields the fields excepted from the signature besides the context defaults, may be null
+     * @return the verification result
+     */
+    public HmacUrlVerification verify(String url, Set<String> exceptedFields) throws HmacFieldException, HmacSignExcception {
+        return verify(url, exceptedFields, null);
+    }
+
+    /**
+     * Verifies a signed url with Macs leased by the caller, as done by batch validations.
+     *
+     * @param url            the signed url
+     * @param exceptedFields the fields excepted from the signature besides the context defaults, may be null
+     * @param lease          the lease providing the Mac of the url key, null to acquire one for this call
+     * @return the verification result
+     */
+    public HmacUrlVerification verify(String url, Set<String> exceptedFields, HmacMacLease lease) throws HmacFieldException, HmacSignExcception {
+        return verify(url, exceptedFields, lease, null);
+    }
+
+    /**
+     * Verifies a signed url sent by a client, the clients whose urls keep failing are throttled when the context asks for it.
+     * Urls turned down by the guard of the context or throttled are neither parsed nor hashed.
+     *
+     * @param url            the signed url
+     * @param exceptedFields the fields excepted from the signature besides the context defaults, may be null
+     * @param lease          the lease providing the Mac of the url key, null to acquire one for this call
+     * @param clientId       the identifier of the client, null when unknown
+     * @return the verification result, without fields when the url was rejected or throttled
+     */
+    public HmacUrlVerification verify(String url, Set<String> exceptedFields, HmacMacLease lease, String clientId) throws HmacFieldException, HmacSignExcception {
+        if (isThrottled(clientId)) {
+            return refuse(HmacUrlStatus.THROTTLED);
+        }
+        HmacUrlGuard guard = this.context.getUrlGuard();
+        if (guard != null && !guard.check(url).isValid()) {
+            this.context.audit(HmacUrlStatus.REJECTED, url);
+            recordFailure(clientId, HmacUrlStatus.REJECTED);
+            return refuse(HmacUrlStatus.REJECTED);
+        }
+        //cached verifications only hold for the default excepted fields of the context
+        HmacValidationCache cache = (this.context.getExceptedFields(exceptedFields) == this.context.getExceptedFields())
+                ? this.context.getValidationCache()
+                : null;
+        if (cache != null) {
+            long now = this.context.getClock().millis();
+            HmacUrlVerification cached = cache.get(url, now);
+            if (cached != null) {
+                HmacKey key = this.context.getKey(cached.getFields());
+                if (key != null && !key.isRetired(now)) {
+                    return cached;
+                }
+            }
+        }
+        HmacUrlVerification verification;
+        try {
+            HmacParsedUrl parsedUrl = HmacUrlParser.parse(url, this.context.getCharset());
+            verification = verify(parsedUrl.getBase(), parsedUrl.getFragment(), parsedUrl.getFields(), exceptedFields, lease);
+        } catch (HmacFieldException exception) {
+            //a malformed url is recorded as rejected before the failure is reported
+            this.context.audit(HmacUrlStatus.REJECTED, url);
+            recordFailure(clientId, HmacUrlStatus.REJECTED);
+            throw exception;
+        }
+        this.context.audit(verification.getStatus(), url);
+        recordFailure(clientId, verification.getStatus());
+        if (cache != null && verification.isValid()) {
+            cache.put(url, verification, this.context.getClock().millis());
+        }
+        return verification;
+    }
+
+    /**
+     * Verifies the signature and the expiration of already decoded fields.
+     *
+     * @param fields         the decoded fields, including the hmac field
+     * @param exceptedFields the fields excepted from the signature besides the context defaults, may be null
+     * @return the verification result
+     */
+    public HmacUrlVerification verify(Map<String, Object> fields, Set<String> exceptedFields) throws HmacFieldException, HmacSignExcception {
+        return verify(fields, exceptedFields, null);
+    }
+
+    /**
+     * Verifies the already decoded fields of a request sent by a client.
+     *
+     * @param fields         the decoded fields, including the hmac field
+     * @param exceptedFields the fields excepted from the signature besides the context defaults, may be null
+     * @param clientId       the identifier of the client, null when unknown
+     * @return the verification result, without fields when the request was rejected or throttled
+     */
+    public HmacUrlVerification verify(Map<String, Object> fields, Set<String> exceptedFields, String clientId) throws HmacFieldException, HmacSignExcception {
+        if (isThrottled(clientId)) {
+            return refuse(HmacUrlStatus.THROTTLED);
+        }
+        HmacUrlGuard guard = this.context.getUrlGuard();
+        if (guard != null && !guard.check(fields).isValid()) {
+            this.context.audit(HmacUrlStatus.REJECTED, null);
+            recordFailure(clientId, HmacUrlStatus.REJECTED);
+            return refuse(HmacUrlStatus.REJECTED);
+        }
+        HmacUrlVerification verification;
+        try {
+            verification = verify(null, null, fields, exceptedFields, null);
+        } catch (HmacFieldException exception) {
+            this.context.audit(HmacUrlStatus.REJECTED, null);
+            recordFailure(clientId, HmacUrlStatus.REJECTED);
+            throw exception;
+        }
+        this.context.audit(verification.getStatus(), null);
+        recordFailure(clientId, verification.getStatus());
+        return verification;
+    }
+
+    protected HmacUrlVerification verify(String base, String fragment, Map<String, Object> fields, Set<String> exceptedFields, HmacMacLease lease) throws HmacFieldException, HmacSignExcception {
+        Object ttlValue = fields.get(FIELD_HMAC_TTL);
+        Object timestampValue = fields.get(FIELD_HMAC_TIMESTAMP);
+        long timeToLive = (ttlValue != null) ? Hmac.getValueAsLong(ttlValue) : HmacUrlVerification.NONE;
+        long timestamp = (timestampValue != null) ? toMillis(timestampValue) : HmacUrlVerification.NONE;
+        Map<String, Object> verifiedFields = Collections.unmodifiableMap(fields);
+        long now = this.context.getClock().millis();
+        if (this.context.isExpiryPreCheck()) {
+            //the claimed expiration is checked before paying for the hmac, a stale link is turned down at once
+            HmacUrlStatus status = expiration(timestamp, timeToLive, now);
+            if (!status.isValid()) {
+                return new HmacUrlVerification(status, base, fragment, verifiedFields, timestamp, timeToLive);
+            }
+        }
+
+        //the key is picked by the hmac-kid field, an unknown or retired key fails like a bad signature
+        Object hmac = fields.get(FIELD_HMAC);
+        byte[] presented = (hmac != null) ? Hmac.decode(String.valueOf(hmac)) : null;
+        HmacKey key = this.context.getKey(fields);
+        if (presented == null || presented.length != this.context.getMacLength() || key == null || key.isRetired(now)) {
+            return new HmacUrlVerification(HmacUrlStatus.INVALID_SIGNATURE, base, fragment, verifiedFields, timestamp, timeToLive);
+        }
+        boolean matched;
+        Set<String> ef = this.context.getExceptedFields(exceptedFields);
+        if (lease != null) {
+            matched = Hmac.verifyRaw(presented, lease.acquire(key), this.context, fields, URL_VALUE_DELIMITER, URL_ITEM_DELIMITER, ef);
+        } else {
+            Mac mac = key.acquireMac();
+            try {
+                matched = Hmac.verifyRaw(presented, mac, this.context, fields, URL_VALUE_DELIMITER, URL_ITEM_DELIMITER, ef);
+            } finally {
+                key.releaseMac(mac);
+            }
+        }
+        if (!matched) {
+            return new HmacUrlVerification(HmacUrlStatus.INVALID_SIGNATURE, base, fragment, verifiedFields, timestamp, timeToLive);
+        }
+        HmacUrlStatus status = expiration(timestamp, timeToLive, now);
+        if (status.isValid() && this.context.getReplayGuard() != null) {
+            status = replay(presented, timestamp, timeToLive, now);
+        }
+        return new HmacUrlVerification(status, base, fragment, verifiedFields, timestamp, timeToLive);
+    }
+
+    /**
+     * Verifies the signature and the expiration of a compact token.
+     *
+     * @param token the base64url token
+     * @param lease the lease providing the Mac of the token key, null to acquire one for this call
+     * @return the verification result, the fields hold the decoded hmac-kid, hmac-ts and hmac-ttl
+     */
+    public HmacUrlVerification verifyToken(String token, HmacMacLease lease) throws HmacFieldException, HmacSignExcception {
+        HmacUrlGuard guard = this.context.getUrlGuard();
+        if (guard != null && !guard.checkLength(token)) {
+            this.context.audit(HmacUrlStatus.REJECTED, token);
+            return refuse(HmacUrlStatus.REJECTED);
+        }
+        HmacUrlVerification verification;
+        try {
+            verification = verifyToken(HmacToken.decode(this.context, token), lease);
+        } catch (HmacFieldException exception) {
+            //an undecodable token is recorded as rejected before the failure is reported
+            this.context.audit(HmacUrlStatus.REJECTED, token);
+            throw exception;
+        }
+        this.context.audit(verification.getStatus(), token);
+        return verification;
+    }
+
+    protected HmacUrlVerification verifyToken(HmacToken decoded, HmacMacLease lease) throws HmacFieldException, HmacSignExcception {
+        long timestamp = decoded.getTimestamp();
+        long timeToLive = decoded.getTimeToLive();
+        Map<String, Object> verifiedFields = Collections.unmodifiableMap(decoded.getFields());
+        long now = this.context.getClock().millis();
+        if (this.context.isExpiryPreCheck()) {
+            HmacUrlStatus status = expiration(timestamp, timeToLive, now);
+            if (!status.isValid()) {
+                return new HmacUrlVerification(status, null, null, verifiedFields, timestamp, timeToLive);
+            }
+        }
+        HmacKey key = this.context.getKey(decoded.getKeyId());
+        if (key == null || key.isRetired(now)) {
+            return new HmacUrlVerification(HmacUrlStatus.INVALID_SIGNATURE, null, null, verifiedFields, timestamp, timeToLive);
+        }
+        byte[] expected;
+        if (lease != null) {
+            expected = decoded.calculateRaw(lease.acquire(key));
+        } else {
+            Mac mac = key.acquireMac();
+            try {
+                expected = decoded.calculateRaw(mac);
+            } finally {
+                key.releaseMac(mac);
+            }
+        }
+        if (!Hmac.isEqual(expected, decoded.getHmac())) {
+            return new HmacUrlVerification(HmacUrlStatus.INVALID_SIGNATURE, null, null, verifiedFields, timestamp, timeToLive);
+        }
+        HmacUrlStatus status = expiration(timestamp, timeToLive, now);
+        if (status.isValid() && this.context.getReplayGuard() != null) {
+            status = replay(decoded.getHmac(), timestamp, timeToLive, now);
+        }
+        return new HmacUrlVerification(status, null, null, verifiedFields, timestamp, timeToLive);
+    }
+
+    protected boolean isThrottled(String clientId) {
+        HmacFailureLimiter limiter = this.context.getFailureLimiter();
+        return clientId != null && limiter != null && limiter.isThrottled(clientId, this.context.getClock().millis());
+    }
+
+    /**
+     * Counts a forged or malformed url against its client, expired and replayed urls may come from honest clients.
+     */
+    protected void recordFailure(String clientId, HmacUrlStatus status) {
+        HmacFailureLimiter limiter = this.context.getFailureLimiter();
+        if (clientId != null && limiter != null && (status == HmacUrlStatus.INVALID_SIGNATURE || status == HmacUrlStatus.REJECTED)) {
+            limiter.recordFailure(clientId, this.context.getClock().millis());
+        }
+    }
+
+    private static HmacUrlVerification refuse(HmacUrlStatus status) {
+        return new HmacUrlVerification(status, null, null, Collections.<String, Object>emptyMap(), HmacUrlVerification.NONE, HmacUrlVerification.NONE);
+    }
+
+    /**
+     * Marks the hmac of a valid url as used, urls without an expiration cannot be guarded and are rejected.
+     */
+    protected HmacUrlStatus replay(byte[] hmac, long timestamp, long timeToLive, long now) {
+        if (timeToLive == HmacUrlVerification.NONE || timestamp == HmacUrlVerification.NONE) {
+            return HmacUrlStatus.REPLAYED;
+        }
+        boolean first = this.context.getReplayGuard().markUsed(hmac, timestamp + timeToLive * 1000, now);
+        return first ? HmacUrlStatus.VALID : HmacUrlStatus.REPLAYED;
+    }
+
+    protected HmacUrlStatus expiration(long timestamp, long timeToLive, long now) {
+        if (timeToLive == HmacUrlVerification.NONE) {
+            return HmacUrlStatus.VALID;
+        }
+        if (timestamp == HmacUrlVerification.NONE) {
+            return HmacUrlStatus.MISSING_TIMESTAMP;
+        }
+        return (now >= timestamp + timeToLive * 1000) ? HmacUrlStatus.EXPIRED : HmacUrlStatus.VALID;
+    }
+
+    private static long toMillis(Object timestampValue) throws HmacFieldException {
+        if (timestampValue instanceof String) {
+            return HmacTimestampCodec.getDefault().parse((String) timestampValue);
+        }
+        return Hmac.getValueAsDate(timestampValue).getTime();
+    }
+
+}
@@ -0,0 +1,152 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock striped LRU cache of the positive verifications of signed urls.
+ * Entries are keyed by a 64 bit digest of the full url, the url is kept to rule out digest collisions.
+ * An entry lives until the url expires (hmac-ts + hmac-ttl) and at most for the maximum age of the cache.
+ */
+public class HmacValidationCache {
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final long maxAgeMillis;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity     the maximum number of cached urls
+     * @param maxAgeMillis the longest time an url stays cached
+     * @param stripes      the number of lock stripes
+     */
+    public HmacValidationCache(int capacity, long maxAgeMillis, int stripes) {
+        int stripeCount = Integer.highestOneBit(Math.max(stripes, 1) - 1) << 1;
+        if (stripeCount == 0) {
+            stripeCount = 1;
+        }
+        this.stripes = new Stripe[stripeCount];
+        int stripeCapacity = Math.max(1, capacity / stripeCount);
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe(stripeCapacity);
+        }
+        this.stripeMask = stripeCount - 1;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Looks up the verification of an url.
+     *
+     * @param url the signed url
+     * @param now the current time in milliseconds since the epoch
+     * @return the cached verification or null if the url is not cached or has expired
+     */
+    public HmacUrlVerification get(String url, long now) {
+        long digest = digest(url);
+        Stripe stripe = stripe(digest);
+        Entry entry;
+        synchronized (stripe) {
+            entry = stripe.get(digest);
+            if (entry != null && (now >= entry.expiresAt || !entry.url.equals(url))) {
+                if (now >= entry.expiresAt) {
+                    stripe.remove(digest);
+                }
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            this.misses.increment();
+            return null;
+        }
+        this.hits.increment();
+        return entry.verification;
+    }
+
+    /**
+     * Caches a valid verification.
+     *
+     * @param url          the signed url
+     * @param verification the valid verification of the url
+     * @param now          the current time in milliseconds since the epoch
+     */
+    public void put(String url, HmacUrlVerification verification, long now) {
+        long expiresAt = now + this.maxAgeMillis;
+        if (verification.getTimeToLive() != HmacUrlVerification.NONE && verification.getTimestamp() != HmacUrlVerification.NONE) {
+            expiresAt = Math.min(expiresAt, verification.getTimestamp() + verification.getTimeToLive() * 1000);
+        }
+        if (expiresAt <= now) {
+            return;
+        }
+        long digest = digest(url);
+        Stripe stripe = stripe(digest);
+        synchronized (stripe) {
+            stripe.put(digest, new Entry(url, verification, expiresAt));
+        }
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public int getSize() {
+        int size = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripe(long digest) {
+        return this.stripes[(int) (digest ^ (digest >>> 32)) & this.stripeMask];
+    }
+
+    /**
+     * 64 bit FNV-1a over the characters of the url, followed by a final mix.
+     */
+    static long digest(String url) {
+        long hash = 0xcbf29ce484222325L;
+        int length = url.length();
+        for (int i = 0; i < length; i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static final class Entry {
+        private final String url;
+        private final HmacUrlVerification verification;
+        private final long expiresAt;
+
+        private Entry(String url, HmacUrlVerification verification, long expiresAt) {
+            this.url = url;
+            this.verification = verification;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class Stripe extends LinkedHashMap<Long, Entry> {
+        private final int capacity;
+
+        private Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+            return size() > this.capacity;
+        }
+    }
+
+}
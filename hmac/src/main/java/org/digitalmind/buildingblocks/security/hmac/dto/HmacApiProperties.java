@@ -0,0 +1,26 @@
+package org.digitalmind.buildingblocks.security.hmac.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Web integration of the hmac module, the signed requests are validated before the controllers are invoked
+ * and the signed bodies while the controllers read them.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HmacApiProperties {
+    protected boolean enabled;
+    protected List<HmacPathProperties> paths = new ArrayList<>();
+    protected List<HmacBodyProperties> bodies = new ArrayList<>();
+    //request header identifying the client for the throttling of failed verifications, the remote address when empty,
+    //it must be set by a trusted proxy overwriting any value sent by the client, else a client changing it is never throttled
+    protected String clientIdHeader;
+}
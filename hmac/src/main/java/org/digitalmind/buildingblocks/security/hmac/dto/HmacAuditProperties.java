@@ -0,0 +1,25 @@
+package org.digitalmind.buildingblocks.security.hmac.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Audit log of the rejected signed urls, written asynchronously to a rolling local file.
+ * Events are dropped, never waited for, when the buffer is full.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HmacAuditProperties {
+    protected boolean enabled;
+    protected String file = "logs/hmac-audit.log";
+    protected long maxFileSize = 10L * 1024 * 1024;
+    protected int maxFiles = 5;
+    protected int bufferCapacity = 8192;
+    protected int batchSize = 256;
+    protected long flushIntervalMillis = 200;
+    protected int maxUrlLength = 512;
+}
@@ -0,0 +1,26 @@
+package org.digitalmind.buildingblocks.security.hmac.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Result of one item of a batch signing or validation, either a value or the error raised by the item.
+ */
+@Getter
+@AllArgsConstructor
+public class HmacBatchResult<T> {
+    private final T value;
+    private final Exception error;
+
+    public static <T> HmacBatchResult<T> success(T value) {
+        return new HmacBatchResult<>(value, null);
+    }
+
+    public static <T> HmacBatchResult<T> failure(Exception error) {
+        return new HmacBatchResult<>(null, error);
+    }
+
+    public boolean isSuccess() {
+        return this.error == null;
+    }
+}
@@ -0,0 +1,21 @@
+package org.digitalmind.buildingblocks.security.hmac.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Request paths, as ant style patterns, whose body must be signed with a hmac context.
+ * The Base64 hmac of the raw body is given in the signature header, the key in the optional key id header.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HmacBodyProperties {
+    protected String pattern;
+    protected String context;
+    protected String signatureHeader = "X-Hmac-Signature";
+    protected String keyIdHeader = "X-Hmac-Kid";
+}
@@ -0,0 +1,25 @@
+package org.digitalmind.buildingblocks.security.hmac.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Pre-filter of a hmac context, turning down structurally invalid urls before they are parsed and hashed:
+ * urls longer than maxUrlLength, a missing hmac or one that is not Base64 of the mac length of the algorithm,
+ * or a missing required field. The hmac field is always required.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HmacGuardProperties {
+    protected boolean enabled;
+    protected int maxUrlLength = 4096;
+    protected Set<String> requiredFields = new HashSet<>();
+    protected HmacThrottleProperties throttle = new HmacThrottleProperties();
+}
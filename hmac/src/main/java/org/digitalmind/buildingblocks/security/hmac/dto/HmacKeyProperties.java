@@ -0,0 +1,22 @@
+package org.digitalmind.buildingblocks.security.hmac.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * A signing key of a hmac context, identified in the signed urls by the hmac-kid field.
+ * The key signs from activeFrom until a newer key becomes active and verifies until retireAt,
+ * both given as yyyyMMddHHmmss timestamps like hmac-ts, empty for no limit.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HmacKeyProperties {
+    protected String id;
+    protected String secret;
+    protected String activeFrom;
+    protected String retireAt;
+}
@@ -0,0 +1,22 @@
+package org.digitalmind.buildingblocks.security.hmac.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Request paths, as ant style patterns, whose query parameters must be signed with a hmac context.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HmacPathProperties {
+    protected String pattern;
+    protected String context;
+    protected Set<String> exceptedFields = new HashSet<>();
+}
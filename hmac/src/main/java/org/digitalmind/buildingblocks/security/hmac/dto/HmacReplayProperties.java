@@ -0,0 +1,22 @@
+package org.digitalmind.buildingblocks.security.hmac.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Replay protection of a hmac context, when enabled every signed url is accepted only once.
+ * Only urls carrying a hmac-ts and a hmac-ttl not longer than the horizon can be guarded.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HmacReplayProperties {
+    protected boolean enabled;
+    protected long bucketSeconds = 60;
+    protected long horizonSeconds = 24 * 60 * 60;
+    protected int capacity = 1 << 20;
+    protected int stripes = 64;
+}
@@ -0,0 +1,23 @@
+package org.digitalmind.buildingblocks.security.hmac.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Throttling of the clients whose signed urls keep failing verification.
+ * Every forged or rejected url takes a token from the bucket of its client, refilled at refillPerSecond,
+ * a client with an empty bucket is turned down without verification until the bucket refills.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HmacThrottleProperties {
+    protected boolean enabled;
+    protected int capacity = 20;
+    protected double refillPerSecond = 1;
+    protected int maxClients = 100000;
+    protected int stripes = 16;
+}
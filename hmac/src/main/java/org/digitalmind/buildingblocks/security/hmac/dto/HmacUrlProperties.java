@@ -5,6 +5,12 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import org.digitalmind.buildingblocks.security.hmac.core.HmacAlgorithm;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacMacStrategy;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 @Getter
 @Setter
@@ -14,6 +20,25 @@ public class HmacUrlProperties {
     protected String name;
     protected boolean enabled;
     protected String secret;
+    //end of the verification of the urls signed with the secret, a yyyyMMddHHmmss timestamp like hmac-ts, empty for no limit
+    protected String secretRetireAt;
+    protected List<HmacKeyProperties> keys = new ArrayList<>();
     protected HmacAlgorithm algorithm;
     protected String encoding;
+    protected Set<String> exceptedFields = new HashSet<>();
+    protected HmacMacStrategy macStrategy = HmacMacStrategy.THREAD_LOCAL;
+    protected int macPoolSize;
+    protected boolean expiryPreCheck;
+    protected int canonicalPlanCapacity = 256;
+    protected HmacReplayProperties replay = new HmacReplayProperties();
+    protected HmacValidationCacheProperties validationCache = new HmacValidationCacheProperties();
+    protected HmacGuardProperties guard = new HmacGuardProperties();
+
+    public HmacUrlProperties(String name, boolean enabled, String secret, HmacAlgorithm algorithm, String encoding) {
+        this.name = name;
+        this.enabled = enabled;
+        this.secret = secret;
+        this.algorithm = algorithm;
+        this.encoding = encoding;
+    }
 }
@@ -0,0 +1,21 @@
+package org.digitalmind.buildingblocks.security.hmac.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Cache of the positive url validations of a hmac context.
+ * The cache cannot be enabled together with the replay protection of the context, the context fails to compile.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HmacValidationCacheProperties {
+    protected boolean enabled;
+    protected int capacity = 10000;
+    protected long maxAgeSeconds = 5 * 60;
+    protected int stripes = 16;
+}
@@ -0,0 +1,48 @@
+package org.digitalmind.buildingblocks.security.hmac.metrics;
+
+import org.digitalmind.buildingblocks.security.hmac.config.HmacConfig;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacKeyProperties;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacUrlProperties;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Actuator endpoint listing the configured hmac contexts with their live statistics.
+ * Secrets are never exposed.
+ */
+@Endpoint(id = "hmac")
+public class HmacEndpoint {
+    private final HmacConfig config;
+    private final HmacMetrics metrics;
+
+    public HmacEndpoint(HmacConfig config, HmacMetrics metrics) {
+        this.config = config;
+        this.metrics = metrics;
+    }
+
+    @ReadOperation
+    public Map<String, Object> contexts() {
+        Map<String, Object> contexts = new LinkedHashMap<>();
+        for (HmacUrlProperties properties : this.config.getConfig()) {
+            Map<String, Object> context = new LinkedHashMap<>();
+            context.put("enabled", properties.isEnabled());
+            context.put("default", properties.getName().equals(this.config.getDefaultName()));
+            context.put("algorithm", properties.getAlgorithm());
+            context.put("encoding", properties.getEncoding());
+            context.put("macStrategy", properties.getMacStrategy());
+            context.put("exceptedFields", properties.getExceptedFields());
+            context.put("keys", properties.getKeys().stream()
+                    .map(HmacKeyProperties::getId)
+                    .collect(Collectors.toList()));
+            if (properties.isEnabled()) {
+                context.put("statistics", this.metrics.getStatistics(properties.getName()));
+            }
+            contexts.put(properties.getName(), context);
+        }
+        return contexts;
+    }
+}
@@ -0,0 +1,91 @@
+package org.digitalmind.buildingblocks.security.hmac.metrics;
+
+import org.digitalmind.buildingblocks.security.hmac.audit.HmacAuditSink;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacClock;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlStatus;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacValidationCache;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Instrumentation of the hmac service.
+ * The {@link #NOOP} instance is used when metrics are disabled, it does not even read the clock.
+ */
+public interface HmacMetrics {
+
+    HmacMetrics NOOP = new HmacMetrics() {
+        @Override
+        public long start() {
+            return 0;
+        }
+
+        @Override
+        public void recordSign(String context, long start, int fieldCount) {
+        }
+
+        @Override
+        public void recordVerify(String context, long start, HmacUrlStatus status, int fieldCount, int urlLength) {
+        }
+
+        @Override
+        public void recordParseError(String context, long start, int urlLength) {
+        }
+
+        @Override
+        public void bindCache(String context, HmacValidationCache cache) {
+        }
+
+        @Override
+        public void bindAudit(HmacAuditSink auditSink) {
+        }
+
+        @Override
+        public void bindClock(HmacClock clock) {
+        }
+
+        @Override
+        public Map<String, Object> getStatistics(String context) {
+            return Collections.emptyMap();
+        }
+    };
+
+    /**
+     * @return the start of a measured operation, to be passed to the record methods
+     */
+    long start();
+
+    void recordSign(String context, long start, int fieldCount);
+
+    void recordVerify(String context, long start, HmacUrlStatus status, int fieldCount, int urlLength);
+
+    void recordParseError(String context, long start, int urlLength);
+
+    /**
+     * Reports the hits and misses of the validation cache of a context.
+     *
+     * @param context the name of the context
+     * @param cache   the validation cache of the context
+     */
+    void bindCache(String context, HmacValidationCache cache);
+
+    /**
+     * Reports the audit events dropped by the audit sink of the service.
+     *
+     * @param auditSink the audit sink of the service
+     */
+    void bindAudit(HmacAuditSink auditSink);
+
+    /**
+     * Sets the clock the live rates are read with.
+     *
+     * @param clock the clock of the service
+     */
+    void bindClock(HmacClock clock);
+
+    /**
+     * @param context the name of the context
+     * @return the counters and live rates of the context
+     */
+    Map<String, Object> getStatistics(String context);
+}
@@ -0,0 +1,50 @@
+package org.digitalmind.buildingblocks.security.hmac.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Events per second over a sliding window of one minute, kept in one bucket per second.
+ * A bucket packs its second and its count in one long so that moving it to a new second and counting are a single update.
+ */
+public class HmacRate {
+    private static final int WINDOW = 60;
+    private static final int COUNT_BITS = 32;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(WINDOW);
+
+    public void mark(long nowMillis) {
+        long second = nowMillis / 1000;
+        int index = (int) (second % WINDOW);
+        long bucket;
+        long next;
+        do {
+            bucket = this.buckets.get(index);
+            long bucketSecond = bucket >>> COUNT_BITS;
+            if (bucketSecond == second) {
+                long count = bucket & COUNT_MASK;
+                //a full bucket stays saturated rather than spilling into the second
+                next = (count == COUNT_MASK) ? bucket : bucket + 1;
+            } else if (bucketSecond < second) {
+                next = (second << COUNT_BITS) | 1;
+            } else {
+                //a late mark for a bucket already moved on is dropped
+                return;
+            }
+        } while (next != bucket && !this.buckets.compareAndSet(index, bucket, next));
+    }
+
+    public double getRate(long nowMillis) {
+        long second = nowMillis / 1000;
+        long total = 0;
+        for (int i = 0; i < WINDOW; i++) {
+            long bucket = this.buckets.get(i);
+            long bucketSecond = bucket >>> COUNT_BITS;
+            //the current second is still filling up, it is left out of the rate
+            if (bucketSecond < second && second - bucketSecond <= WINDOW) {
+                total += bucket & COUNT_MASK;
+            }
+        }
+        return (double) total / WINDOW;
+    }
+}
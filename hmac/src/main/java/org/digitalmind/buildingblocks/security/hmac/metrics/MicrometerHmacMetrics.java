@@ -0,0 +1,195 @@
+package org.digitalmind.buildingblocks.security.hmac.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.digitalmind.buildingblocks.security.hmac.audit.HmacAuditSink;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacClock;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlStatus;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacValidationCache;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer based instrumentation, meters are registered per context on first use.
+ */
+public class MicrometerHmacMetrics implements HmacMetrics {
+    public static final String METRIC_SIGN = "hmac.sign";
+    public static final String METRIC_VERIFY = "hmac.verify";
+    public static final String METRIC_OUTCOME = "hmac.verify.outcome";
+    public static final String METRIC_FIELDS = "hmac.fields";
+    public static final String METRIC_URL_LENGTH = "hmac.url.length";
+    public static final String METRIC_CACHE = "hmac.verify.cache";
+    public static final String METRIC_AUDIT_DROPPED = "hmac.audit.dropped";
+    public static final String TAG_CONTEXT = "context";
+    public static final String TAG_OUTCOME = "outcome";
+    public static final String TAG_RESULT = "result";
+    public static final String OUTCOME_PARSE_ERROR = "parse_error";
+
+    private final MeterRegistry registry;
+    private final Map<String, ContextMeters> meters = new ConcurrentHashMap<>();
+    private volatile HmacClock clock = HmacClock.SYSTEM;
+
+    public MicrometerHmacMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public long start() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void recordSign(String context, long start, int fieldCount) {
+        ContextMeters contextMeters = meters(context);
+        contextMeters.sign.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        //payload signatures have no fields
+        if (fieldCount > 0) {
+            contextMeters.fieldCount.record(fieldCount);
+        }
+        contextMeters.signRate.mark(this.clock.millis());
+    }
+
+    @Override
+    public void recordVerify(String context, long start, HmacUrlStatus status, int fieldCount, int urlLength) {
+        ContextMeters contextMeters = meters(context);
+        contextMeters.verify.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        contextMeters.outcomes.get(status).increment();
+        if (fieldCount > 0) {
+            contextMeters.fieldCount.record(fieldCount);
+        }
+        if (urlLength > 0) {
+            contextMeters.urlLength.record(urlLength);
+        }
+        contextMeters.verifyRate.mark(this.clock.millis());
+        if (!status.isValid()) {
+            contextMeters.failureRate.mark(this.clock.millis());
+        }
+    }
+
+    @Override
+    public void recordParseError(String context, long start, int urlLength) {
+        ContextMeters contextMeters = meters(context);
+        contextMeters.verify.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        contextMeters.parseErrors.increment();
+        if (urlLength > 0) {
+            contextMeters.urlLength.record(urlLength);
+        }
+        contextMeters.verifyRate.mark(this.clock.millis());
+        contextMeters.failureRate.mark(this.clock.millis());
+    }
+
+    @Override
+    public void bindCache(String context, HmacValidationCache cache) {
+        meters(context).cache = cache;
+        FunctionCounter.builder(METRIC_CACHE, cache, HmacValidationCache::getHits)
+                .tag(TAG_CONTEXT, context)
+                .tag(TAG_RESULT, "hit")
+                .register(this.registry);
+        FunctionCounter.builder(METRIC_CACHE, cache, HmacValidationCache::getMisses)
+                .tag(TAG_CONTEXT, context)
+                .tag(TAG_RESULT, "miss")
+                .register(this.registry);
+    }
+
+    @Override
+    public void bindAudit(HmacAuditSink auditSink) {
+        if (auditSink != HmacAuditSink.NOOP) {
+            FunctionCounter.builder(METRIC_AUDIT_DROPPED, auditSink, HmacAuditSink::getDropCount)
+                    .register(this.registry);
+        }
+    }
+
+    @Override
+    public void bindClock(HmacClock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public Map<String, Object> getStatistics(String context) {
+        ContextMeters contextMeters = meters(context);
+        long now = this.clock.millis();
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("signCount", contextMeters.sign.count());
+        statistics.put("signRate", contextMeters.signRate.getRate(now));
+        statistics.put("signMeanMillis", contextMeters.sign.mean(TimeUnit.MILLISECONDS));
+        statistics.put("verifyCount", contextMeters.verify.count());
+        statistics.put("verifyRate", contextMeters.verifyRate.getRate(now));
+        statistics.put("verifyMeanMillis", contextMeters.verify.mean(TimeUnit.MILLISECONDS));
+        statistics.put("failureRate", contextMeters.failureRate.getRate(now));
+        Map<String, Object> outcomes = new LinkedHashMap<>();
+        for (Map.Entry<HmacUrlStatus, Counter> entry : contextMeters.outcomes.entrySet()) {
+            outcomes.put(outcome(entry.getKey()), (long) entry.getValue().count());
+        }
+        outcomes.put(OUTCOME_PARSE_ERROR, (long) contextMeters.parseErrors.count());
+        statistics.put("outcomes", outcomes);
+        HmacValidationCache cache = contextMeters.cache;
+        if (cache != null) {
+            Map<String, Object> cacheStatistics = new LinkedHashMap<>();
+            cacheStatistics.put("hits", cache.getHits());
+            cacheStatistics.put("misses", cache.getMisses());
+            cacheStatistics.put("size", cache.getSize());
+            statistics.put("cache", cacheStatistics);
+        }
+        return statistics;
+    }
+
+    private ContextMeters meters(String context) {
+        ContextMeters contextMeters = this.meters.get(context);
+        if (contextMeters == null) {
+            contextMeters = this.meters.computeIfAbsent(context, t -> new ContextMeters(this.registry, t));
+        }
+        return contextMeters;
+    }
+
+    private static String outcome(HmacUrlStatus status) {
+        return status.name().toLowerCase();
+    }
+
+    private static class ContextMeters {
+        private final Timer sign;
+        private final Timer verify;
+        private final Map<HmacUrlStatus, Counter> outcomes = new EnumMap<>(HmacUrlStatus.class);
+        private final Counter parseErrors;
+        private final DistributionSummary fieldCount;
+        private final DistributionSummary urlLength;
+        private final HmacRate signRate = new HmacRate();
+        private final HmacRate verifyRate = new HmacRate();
+        private final HmacRate failureRate = new HmacRate();
+        private volatile HmacValidationCache cache;
+
+        ContextMeters(MeterRegistry registry, String context) {
+            this.sign = Timer.builder(METRIC_SIGN)
+                    .tag(TAG_CONTEXT, context)
+                    .register(registry);
+            this.verify = Timer.builder(METRIC_VERIFY)
+                    .tag(TAG_CONTEXT, context)
+                    .register(registry);
+            for (HmacUrlStatus status : HmacUrlStatus.values()) {
+                this.outcomes.put(status, Counter.builder(METRIC_OUTCOME)
+                        .tag(TAG_CONTEXT, context)
+                        .tag(TAG_OUTCOME, outcome(status))
+                        .register(registry));
+            }
+            this.parseErrors = Counter.builder(METRIC_OUTCOME)
+                    .tag(TAG_CONTEXT, context)
+                    .tag(TAG_OUTCOME, OUTCOME_PARSE_ERROR)
+                    .register(registry);
+            this.fieldCount = DistributionSummary.builder(METRIC_FIELDS)
+                    .tag(TAG_CONTEXT, context)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            this.urlLength = DistributionSummary.builder(METRIC_URL_LENGTH)
+                    .tag(TAG_CONTEXT, context)
+                    .baseUnit("chars")
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+    }
+}
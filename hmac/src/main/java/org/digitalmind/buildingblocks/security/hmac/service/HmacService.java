@@ -1,11 +1,20 @@
 package org.digitalmind.buildingblocks.security.hmac.service;
 
 import org.digitalmind.buildingblocks.security.hmac.core.HmacAlgorithm;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacContext;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacFields;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlTemplate;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlVerification;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacBatchResult;
 import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
 import org.digitalmind.buildingblocks.security.hmac.exception.HmacSignExcception;
 import org.digitalmind.buildingblocks.security.hmac.exception.HmacUrlExpiredException;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -15,18 +24,60 @@ public interface HmacService {
 
     public Map<String, Object> addTemporalMark(Map<String, Object> fields, Date hmacDate, int years, int months, int days, int hours, int minutes, int seconds);
 
+    public HmacFields addTemporalMark(HmacFields fields, long hmacDateMillis, long timeToLive);
+
     public Map<String, Object> removeTemporalMark(Map<String, Object> fields);
 
     public String calculateHmac(String context, Map<String, Object> fields, Set<String> exceptedFields) throws HmacFieldException, HmacSignExcception;
 
     public boolean validateHmac(String context, String hmac, Map<String, Object> fields, Set<String> exceptedFields) throws HmacFieldException, HmacSignExcception;
 
+    public String calculateHmac(String context, String keyId, InputStream payload) throws HmacSignExcception;
+
+    public String calculateHmac(String context, String keyId, ByteBuffer payload) throws HmacSignExcception;
+
+    public String calculateHmac(String context, String keyId, Path payload) throws HmacSignExcception;
+
+    public boolean validateHmac(String context, String hmac, String keyId, InputStream payload) throws HmacSignExcception;
+
+    public boolean validateHmac(String context, String hmac, String keyId, ByteBuffer payload) throws HmacSignExcception;
+
+    public boolean validateHmac(String context, String hmac, String keyId, Path payload) throws HmacSignExcception;
+
     public String calculateUrl(String context, Map<String, Object> fields, Set<String> exceptedFields, String base, String fragment) throws HmacFieldException, HmacSignExcception;
 
+    public HmacUrlTemplate createUrlTemplate(String context, Map<String, Object> fixedFields, Set<String> exceptedFields, String base, String fragment) throws HmacFieldException;
+
+    public String calculateUrl(HmacUrlTemplate template, Map<String, Object> variableFields) throws HmacFieldException, HmacSignExcception;
+
+    public List<HmacBatchResult<String>> calculateUrls(HmacUrlTemplate template, List<Map<String, Object>> variableFields);
+
+    public String calculateToken(String context, Map<String, Object> fields) throws HmacFieldException, HmacSignExcception;
+
+    public String calculateTokenUrl(String context, Map<String, Object> fields, String base, String fragment) throws HmacFieldException, HmacSignExcception;
+
+    public HmacUrlVerification verifyToken(String context, String token) throws HmacSignExcception, HmacFieldException;
+
+    public HmacUrlVerification verifyTokenUrl(String context, String url) throws HmacSignExcception, HmacFieldException;
+
     public boolean validateUrl(String context, String url, Set<String> exceptedFields, boolean throwExceptionOnExpiration) throws HmacSignExcception, HmacFieldException, HmacUrlExpiredException;
 
+    public HmacUrlVerification verifyUrl(String context, String url, Set<String> exceptedFields) throws HmacSignExcception, HmacFieldException;
+
+    public HmacUrlVerification verifyUrl(String context, String url, Set<String> exceptedFields, String clientId) throws HmacSignExcception, HmacFieldException;
+
+    public HmacUrlVerification verifyFields(String context, Map<String, Object> fields, Set<String> exceptedFields) throws HmacSignExcception, HmacFieldException;
+
+    public HmacUrlVerification verifyFields(String context, Map<String, Object> fields, Set<String> exceptedFields, String clientId) throws HmacSignExcception, HmacFieldException;
+
+    public List<HmacBatchResult<String>> calculateUrls(String context, List<Map<String, Object>> fields, Set<String> exceptedFields, String base, String fragment);
+
+    public List<HmacBatchResult<HmacUrlVerification>> validateUrls(String context, List<String> urls, Set<String> exceptedFields);
+
     public Map<String, Object> getUrlFields(String context, String url) throws HmacFieldException;
 
+    public HmacContext getHmacContext(String context);
+
     public String getHmacEncoding(String context);
 
     public HmacAlgorithm getHmacAlgorithm(String context);
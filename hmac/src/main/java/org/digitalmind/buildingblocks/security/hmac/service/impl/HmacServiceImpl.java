@@ -1,27 +1,61 @@
 package org.digitalmind.buildingblocks.security.hmac.service.impl;
 
 import lombok.extern.slf4j.Slf4j;
+import org.digitalmind.buildingblocks.security.hmac.audit.HmacAsyncAuditSink;
+import org.digitalmind.buildingblocks.security.hmac.audit.HmacAuditSink;
+import org.digitalmind.buildingblocks.security.hmac.audit.HmacRollingFileAuditWriter;
 import org.digitalmind.buildingblocks.security.hmac.config.HmacConfig;
+import org.digitalmind.buildingblocks.security.hmac.core.Hmac;
 import org.digitalmind.buildingblocks.security.hmac.core.HmacAlgorithm;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacBatch;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacClock;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacCoarseClock;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacContext;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacFields;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacKey;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacMacLease;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacStream;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacToken;
 import org.digitalmind.buildingblocks.security.hmac.core.HmacUrl;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlStatus;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlTemplate;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlVerification;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlParser;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlVerifier;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacAuditProperties;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacBatchResult;
 import org.digitalmind.buildingblocks.security.hmac.dto.HmacUrlProperties;
 import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
 import org.digitalmind.buildingblocks.security.hmac.exception.HmacSignExcception;
 import org.digitalmind.buildingblocks.security.hmac.exception.HmacUrlExpiredException;
+import org.digitalmind.buildingblocks.security.hmac.metrics.HmacMetrics;
 import org.digitalmind.buildingblocks.security.hmac.service.HmacService;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 import static org.digitalmind.buildingblocks.security.hmac.config.HmacModuleConfig.ENABLED;
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC;
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC_KID;
 import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC_TIMESTAMP;
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC_TOKEN;
 import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HMAC_TTL;
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.URL_ITEM_DELIMITER;
+import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.URL_VALUE_DELIMITER;
 
 @Slf4j
 @Service
@@ -29,16 +63,107 @@ import static org.digitalmind.buildingblocks.security.hmac.core.HmacUrl.FIELD_HM
 public class HmacServiceImpl implements HmacService {
     private final HmacConfig config;
     private final Map<String, HmacUrlProperties> urlPropertiesMap;
+    private final Map<String, HmacContext> contextMap;
+    private final Map<String, HmacUrlVerifier> verifierMap;
+    private final ForkJoinPool batchPool;
+    private final HmacMetrics metrics;
+    private final HmacClock clock;
+    private final boolean ownsClock;
+    private final HmacAuditSink auditSink;
+    private final boolean ownsAuditSink;
 
-    @Autowired
     public HmacServiceImpl(HmacConfig config) {
+        this(config, HmacMetrics.NOOP);
+    }
+
+    @Autowired
+    public HmacServiceImpl(HmacConfig config, ObjectProvider<HmacMetrics> metrics, ObjectProvider<HmacClock> clock, ObjectProvider<HmacAuditSink> auditSink) {
+        this(config, metrics.getIfAvailable(() -> HmacMetrics.NOOP), clock.getIfAvailable(), auditSink.getIfAvailable());
+    }
+
+    public HmacServiceImpl(HmacConfig config, HmacMetrics metrics) {
+        this(config, metrics, null);
+    }
+
+    /**
+     * @param clock the clock of the service, null for a clock created from the configuration and closed with the service
+     */
+    public HmacServiceImpl(HmacConfig config, HmacMetrics metrics, HmacClock clock) {
+        this(config, metrics, clock, null);
+    }
+
+    /**
+     * @param clock     the clock of the service, null for a clock created from the configuration and closed with the service
+     * @param auditSink the receiver of the rejected urls, null for a sink created from the configuration and closed with the service
+     */
+    public HmacServiceImpl(HmacConfig config, HmacMetrics metrics, HmacClock clock, HmacAuditSink auditSink) {
         this.config = config;
+        this.metrics = metrics;
+        this.ownsClock = (clock == null);
+        this.clock = (clock != null) ? clock : createClock(config);
+        this.ownsAuditSink = (auditSink == null);
+        this.auditSink = (auditSink != null) ? auditSink : createAuditSink(config);
+        this.metrics.bindAudit(this.auditSink);
+        this.metrics.bindClock(this.clock);
         urlPropertiesMap = this.config.getConfig().stream()
                 .filter(t -> t.isEnabled())
                 .collect(Collectors.toMap(t -> t.getName(), t -> t));
+        contextMap = urlPropertiesMap.values().stream()
+                .collect(Collectors.toMap(t -> t.getName(), t -> compileContext(t)));
+        verifierMap = contextMap.values().stream()
+                .collect(Collectors.toMap(t -> t.getName(), t -> new HmacUrlVerifier(t)));
+        contextMap.values().stream()
+                .filter(t -> t.getValidationCache() != null)
+                .forEach(t -> this.metrics.bindCache(t.getName(), t.getValidationCache()));
+        batchPool = (this.config.getBatchParallelism() > 0)
+                ? new ForkJoinPool(this.config.getBatchParallelism())
+                : ForkJoinPool.commonPool();
         log.info("HmacServiceImpl service initialized");
     }
 
+    /**
+     * Creates the clock of the service, a coarse clock when a clock resolution is configured.
+     */
+    protected static HmacClock createClock(HmacConfig config) {
+        return (config.getClockResolutionMillis() > 0)
+                ? new HmacCoarseClock(config.getClockResolutionMillis())
+                : HmacClock.SYSTEM;
+    }
+
+    /**
+     * Creates the audit sink of the service, an asynchronous rolling file sink when auditing is enabled.
+     */
+    protected static HmacAuditSink createAuditSink(HmacConfig config) {
+        HmacAuditProperties audit = config.getAudit();
+        if (audit == null || !audit.isEnabled()) {
+            return HmacAuditSink.NOOP;
+        }
+        return new HmacAsyncAuditSink(
+                new HmacRollingFileAuditWriter(Paths.get(audit.getFile()), audit.getMaxFileSize(), audit.getMaxFiles()),
+                audit.getBufferCapacity(), audit.getBatchSize(), audit.getFlushIntervalMillis(), audit.getMaxUrlLength());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (this.batchPool != ForkJoinPool.commonPool()) {
+            this.batchPool.shutdown();
+        }
+        if (this.ownsClock && this.clock instanceof HmacCoarseClock) {
+            ((HmacCoarseClock) this.clock).close();
+        }
+        if (this.ownsAuditSink && this.auditSink instanceof HmacAsyncAuditSink) {
+            ((HmacAsyncAuditSink) this.auditSink).close();
+        }
+    }
+
+    protected HmacContext compileContext(HmacUrlProperties hmacUrlProperties) {
+        try {
+            return new HmacContext(hmacUrlProperties, this.clock, this.auditSink);
+        } catch (HmacSignExcception exception) {
+            throw new IllegalStateException("Unable to compile hmac context " + hmacUrlProperties.getName(), exception);
+        }
+    }
+
     public HmacUrlProperties getHmacUrlProperties(String context) {
         if (this.urlPropertiesMap != null && this.urlPropertiesMap.containsKey(context)) {
             return this.urlPropertiesMap.get(context);
@@ -46,6 +171,22 @@ public class HmacServiceImpl implements HmacService {
         return this.urlPropertiesMap.get(this.config.getDefaultName());
     }
 
+    public HmacContext getHmacContext(String context) {
+        HmacContext hmacContext = this.contextMap.get(context);
+        if (hmacContext == null) {
+            hmacContext = this.contextMap.get(this.config.getDefaultName());
+        }
+        return hmacContext;
+    }
+
+    public HmacUrlVerifier getHmacUrlVerifier(String context) {
+        HmacUrlVerifier verifier = this.verifierMap.get(context);
+        if (verifier == null) {
+            verifier = this.verifierMap.get(this.config.getDefaultName());
+        }
+        return verifier;
+    }
+
     public String getHmacEncoding(String context) {
         return this.getHmacUrlProperties(context).getEncoding();
     }
@@ -64,6 +205,7 @@ public class HmacServiceImpl implements HmacService {
         builder.algorithm(hmacUrlProperties.getAlgorithm());
         builder.encoding(hmacUrlProperties.getEncoding());
         builder.secret(hmacUrlProperties.getSecret());
+        builder.context(this.getHmacContext(context));
         return builder;
     }
 
@@ -73,8 +215,18 @@ public class HmacServiceImpl implements HmacService {
     }
 
     public Map<String, Object> addTemporalMark(Map<String, Object> fields, Date hmacDate, int years, int months, int days, int hours, int minutes, int seconds) {
-        Calendar calendar = Calendar.getInstance();
         long hmacDateMillis = hmacDate.getTime();
+        if (years <= 0 && months <= 0) {
+            //days, hours, minutes and seconds are added as elapsed time, no calendar is needed
+            long offset = Math.max(days, 0) * 24L * 60 * 60 + Math.max(hours, 0) * 60L * 60 + Math.max(minutes, 0) * 60L + Math.max(seconds, 0);
+            if (fields instanceof HmacFields) {
+                return addTemporalMark((HmacFields) fields, hmacDateMillis, offset);
+            }
+            fields.put(FIELD_HMAC_TIMESTAMP, hmacDate);
+            fields.put(FIELD_HMAC_TTL, offset);
+            return fields;
+        }
+        Calendar calendar = Calendar.getInstance();
 
         calendar.setTime(hmacDate);
         if (years > 0) {
@@ -103,6 +255,12 @@ public class HmacServiceImpl implements HmacService {
         return fields;
     }
 
+    public HmacFields addTemporalMark(HmacFields fields, long hmacDateMillis, long timeToLive) {
+        fields.setTimestamp(hmacDateMillis);
+        fields.setTimeToLive(timeToLive);
+        return fields;
+    }
+
     public Map<String, Object> removeTemporalMark(Map<String, Object> fields) {
         fields.remove(FIELD_HMAC_TIMESTAMP);
         fields.remove(FIELD_HMAC_TTL);
@@ -110,34 +268,247 @@ public class HmacServiceImpl implements HmacService {
     }
 
     public String calculateHmac(String context, Map<String, Object> fields, Set<String> exceptedFields) throws HmacFieldException, HmacSignExcception {
-        HmacUrl.HmacUrlBuilder builder = getBuilder(context);
-        builder.fields(fields);
-        builder.exceptedFields(exceptedFields);
-        return builder.build().calculateHmac();
+        return calculateHmac(this.getHmacContext(context), fields, exceptedFields);
+    }
+
+    /**
+     * Signs the fields with the key given as hmac-kid or else with the legacy secret of the context.
+     * Fields without hmac-kid are refused while a named key is active, the hmac could not be verified from them,
+     * callers read the id from {@link HmacContext#getSigningKey()} and pass it as hmac-kid.
+     */
+    protected String calculateHmac(HmacContext hmacContext, Map<String, Object> fields, Set<String> exceptedFields) throws HmacFieldException, HmacSignExcception {
+        long start = this.metrics.start();
+        if (!fields.containsKey(FIELD_HMAC_KID)) {
+            HmacKey key = hmacContext.getSigningKey();
+            if (key.getId() != null) {
+                throw new HmacFieldException("Missing " + FIELD_HMAC_KID + " field for the active key " + key.getId() + " of hmac context " + hmacContext.getName());
+            }
+        }
+        String hmac = Hmac.create(hmacContext, fields, URL_VALUE_DELIMITER, URL_ITEM_DELIMITER, hmacContext.getExceptedFields(exceptedFields));
+        this.metrics.recordSign(hmacContext.getName(), start, fields.size());
+        return hmac;
     }
 
     public boolean validateHmac(String context, String hmac, Map<String, Object> fields, Set<String> exceptedFields) throws HmacFieldException, HmacSignExcception {
-        String hmacCalculated = calculateHmac(context, fields, exceptedFields);
-        return hmacCalculated.equals(hmac);
+        HmacContext hmacContext = this.getHmacContext(context);
+        long start = this.metrics.start();
+        boolean valid = Hmac.verify(hmac, hmacContext, fields, URL_VALUE_DELIMITER, URL_ITEM_DELIMITER, hmacContext.getExceptedFields(exceptedFields));
+        this.metrics.recordVerify(hmacContext.getName(), start, valid ? HmacUrlStatus.VALID : HmacUrlStatus.INVALID_SIGNATURE, fields.size(), 0);
+        return valid;
+    }
+
+    /**
+     * Signs a payload with the given key of the context, null for the legacy secret.
+     */
+    public String calculateHmac(String context, String keyId, InputStream payload) throws HmacSignExcception {
+        HmacContext hmacContext = this.getHmacContext(context);
+        long start = this.metrics.start();
+        String hmac = HmacStream.create(hmacContext, keyId, payload);
+        this.metrics.recordSign(hmacContext.getName(), start, 0);
+        return hmac;
+    }
+
+    public String calculateHmac(String context, String keyId, ByteBuffer payload) throws HmacSignExcception {
+        HmacContext hmacContext = this.getHmacContext(context);
+        long start = this.metrics.start();
+        String hmac = HmacStream.create(hmacContext, keyId, payload);
+        this.metrics.recordSign(hmacContext.getName(), start, 0);
+        return hmac;
+    }
+
+    public String calculateHmac(String context, String keyId, Path payload) throws HmacSignExcception {
+        HmacContext hmacContext = this.getHmacContext(context);
+        long start = this.metrics.start();
+        String hmac = HmacStream.create(hmacContext, keyId, payload);
+        this.metrics.recordSign(hmacContext.getName(), start, 0);
+        return hmac;
+    }
+
+    public boolean validateHmac(String context, String hmac, String keyId, InputStream payload) throws HmacSignExcception {
+        HmacContext hmacContext = this.getHmacContext(context);
+        long start = this.metrics.start();
+        boolean valid = HmacStream.verify(hmac, hmacContext, keyId, payload);
+        this.metrics.recordVerify(hmacContext.getName(), start, valid ? HmacUrlStatus.VALID : HmacUrlStatus.INVALID_SIGNATURE, 0, 0);
+        return valid;
+    }
+
+    public boolean validateHmac(String context, String hmac, String keyId, ByteBuffer payload) throws HmacSignExcception {
+        HmacContext hmacContext = this.getHmacContext(context);
+        long start = this.metrics.start();
+        boolean valid = HmacStream.verify(hmac, hmacContext, keyId, payload);
+        this.metrics.recordVerify(hmacContext.getName(), start, valid ? HmacUrlStatus.VALID : HmacUrlStatus.INVALID_SIGNATURE, 0, 0);
+        return valid;
+    }
+
+    public boolean validateHmac(String context, String hmac, String keyId, Path payload) throws HmacSignExcception {
+        HmacContext hmacContext = this.getHmacContext(context);
+        long start = this.metrics.start();
+        boolean valid = HmacStream.verify(hmac, hmacContext, keyId, payload);
+        this.metrics.recordVerify(hmacContext.getName(), start, valid ? HmacUrlStatus.VALID : HmacUrlStatus.INVALID_SIGNATURE, 0, 0);
+        return valid;
     }
 
     public String calculateUrl(String context, Map<String, Object> fields, Set<String> exceptedFields, String base, String fragment) throws HmacFieldException, HmacSignExcception {
-        HmacUrl.HmacUrlBuilder builder = getBuilder(context);
-        builder.fields(fields);
-        builder.exceptedFields(exceptedFields);
-        builder.base(base);
-        builder.fragment(fragment);
-        return builder.build().calculateUrl();
+        HmacContext hmacContext = this.getHmacContext(context);
+        try (HmacMacLease lease = new HmacMacLease()) {
+            return calculateUrl(hmacContext, lease, fields, exceptedFields, base, fragment);
+        }
+    }
+
+    protected String calculateUrl(HmacContext hmacContext, HmacMacLease lease, Map<String, Object> fields, Set<String> exceptedFields, String base, String fragment) throws HmacFieldException, HmacSignExcception {
+        long start = this.metrics.start();
+        HmacKey key = hmacContext.getSigningKey();
+        HmacFields urlFields = new HmacFields(fields);
+        if (key.getId() != null) {
+            urlFields.put(FIELD_HMAC_KID, key.getId());
+        }
+        byte[] hmac = Hmac.createRaw(lease.acquire(key), hmacContext, urlFields, URL_VALUE_DELIMITER, URL_ITEM_DELIMITER, hmacContext.getExceptedFields(exceptedFields));
+        urlFields.put(FIELD_HMAC, Hmac.encode(hmac));
+        String hmacParams = Hmac.toQueryString(hmacContext, urlFields, URL_VALUE_DELIMITER, URL_ITEM_DELIMITER, null);
+        String url = toUrl(base, hmacParams, fragment);
+        this.metrics.recordSign(hmacContext.getName(), start, fields.size());
+        return url;
+    }
+
+    public List<HmacBatchResult<String>> calculateUrls(String context, List<Map<String, Object>> fields, Set<String> exceptedFields, String base, String fragment) {
+        HmacContext hmacContext = this.getHmacContext(context);
+        return HmacBatch.execute(this.batchPool, fields, this.config.getBatchChunkSize(),
+                (item, lease) -> calculateUrl(hmacContext, lease, item, exceptedFields, base, fragment));
+    }
+
+    public HmacUrlTemplate createUrlTemplate(String context, Map<String, Object> fixedFields, Set<String> exceptedFields, String base, String fragment) throws HmacFieldException {
+        return new HmacUrlTemplate(this.getHmacContext(context), fixedFields, exceptedFields, base, fragment);
+    }
+
+    public String calculateUrl(HmacUrlTemplate template, Map<String, Object> variableFields) throws HmacFieldException, HmacSignExcception {
+        return calculateUrl(template, variableFields, null);
+    }
+
+    protected String calculateUrl(HmacUrlTemplate template, Map<String, Object> variableFields, HmacMacLease lease) throws HmacFieldException, HmacSignExcception {
+        long start = this.metrics.start();
+        String url = template.calculateUrl(variableFields, lease);
+        this.metrics.recordSign(template.getContext().getName(), start, template.getFixedFields().size() + variableFields.size());
+        return url;
+    }
+
+    public List<HmacBatchResult<String>> calculateUrls(HmacUrlTemplate template, List<Map<String, Object>> variableFields) {
+        return HmacBatch.execute(this.batchPool, variableFields, this.config.getBatchChunkSize(),
+                (item, lease) -> calculateUrl(template, item, lease));
+    }
+
+    public String calculateToken(String context, Map<String, Object> fields) throws HmacFieldException, HmacSignExcception {
+        HmacContext hmacContext = this.getHmacContext(context);
+        long start = this.metrics.start();
+        String token = HmacToken.create(hmacContext, fields, null);
+        this.metrics.recordSign(hmacContext.getName(), start, fields.size());
+        return token;
+    }
+
+    public String calculateTokenUrl(String context, Map<String, Object> fields, String base, String fragment) throws HmacFieldException, HmacSignExcception {
+        return toUrl(base, FIELD_HMAC_TOKEN + URL_VALUE_DELIMITER + calculateToken(context, fields), fragment);
+    }
+
+    public HmacUrlVerification verifyToken(String context, String token) throws HmacSignExcception, HmacFieldException {
+        HmacUrlVerifier verifier = getHmacUrlVerifier(context);
+        long start = this.metrics.start();
+        HmacUrlVerification verification;
+        try {
+            verification = verifier.verifyToken(token, null);
+        } catch (HmacFieldException exception) {
+            this.metrics.recordParseError(verifier.getContext().getName(), start, token.length());
+            throw exception;
+        }
+        this.metrics.recordVerify(verifier.getContext().getName(), start, verification.getStatus(), verification.getFields().size(), token.length());
+        return verification;
+    }
+
+    public HmacUrlVerification verifyTokenUrl(String context, String url) throws HmacSignExcception, HmacFieldException {
+        String token = HmacToken.find(url);
+        if (token == null) {
+            throw new HmacFieldException("The url provided does not have a " + FIELD_HMAC_TOKEN + " parameter");
+        }
+        return verifyToken(context, token);
+    }
+
+    protected String toUrl(String base, String hmacParams, String fragment) {
+        if (base != null && base.endsWith("/")) {
+            base = base.substring(0, base.length() - 1);
+        }
+        if (fragment != null && fragment.startsWith("#")) {
+            fragment = fragment.substring(1);
+        }
+        return base + "/?" + hmacParams + ((fragment != null && !fragment.isEmpty()) ? "#" + fragment : "");
     }
 
     public boolean validateUrl(String context, String url, Set<String> exceptedFields, boolean throwExceptionOnExpiration) throws HmacSignExcception, HmacFieldException, HmacUrlExpiredException {
-        HmacUrl.HmacUrlBuilder builder = getBuilder(context);
-        builder.exceptedFields(exceptedFields);
-        return builder.build().validateUrl(url, throwExceptionOnExpiration);
+        HmacUrlVerification verification = verifyUrl(context, url, exceptedFields);
+        switch (verification.getStatus()) {
+            case VALID:
+                return true;
+            case EXPIRED:
+                if (throwExceptionOnExpiration) {
+                    throw new HmacUrlExpiredException("The url has expired");
+                }
+                return false;
+            case MISSING_TIMESTAMP:
+                if (throwExceptionOnExpiration) {
+                    throw new HmacUrlExpiredException("The url has ttl and no hmac date");
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    public HmacUrlVerification verifyUrl(String context, String url, Set<String> exceptedFields) throws HmacSignExcception, HmacFieldException {
+        return verifyUrl(getHmacUrlVerifier(context), url, exceptedFields, null, null);
+    }
+
+    public HmacUrlVerification verifyUrl(String context, String url, Set<String> exceptedFields, String clientId) throws HmacSignExcception, HmacFieldException {
+        return verifyUrl(getHmacUrlVerifier(context), url, exceptedFields, null, clientId);
+    }
+
+    protected HmacUrlVerification verifyUrl(HmacUrlVerifier verifier, String url, Set<String> exceptedFields, HmacMacLease lease, String clientId) throws HmacSignExcception, HmacFieldException {
+        long start = this.metrics.start();
+        HmacUrlVerification verification;
+        try {
+            verification = verifier.verify(url, exceptedFields, lease, clientId);
+        } catch (HmacFieldException exception) {
+            this.metrics.recordParseError(verifier.getContext().getName(), start, url.length());
+            throw exception;
+        }
+        this.metrics.recordVerify(verifier.getContext().getName(), start, verification.getStatus(), verification.getFields().size(), url.length());
+        return verification;
+    }
+
+    public HmacUrlVerification verifyFields(String context, Map<String, Object> fields, Set<String> exceptedFields) throws HmacSignExcception, HmacFieldException {
+        return verifyFields(context, fields, exceptedFields, null);
+    }
+
+    public HmacUrlVerification verifyFields(String context, Map<String, Object> fields, Set<String> exceptedFields, String clientId) throws HmacSignExcception, HmacFieldException {
+        HmacUrlVerifier verifier = getHmacUrlVerifier(context);
+        long start = this.metrics.start();
+        HmacUrlVerification verification;
+        try {
+            verification = verifier.verify(fields, exceptedFields, clientId);
+        } catch (HmacFieldException exception) {
+            this.metrics.recordParseError(verifier.getContext().getName(), start, 0);
+            throw exception;
+        }
+        this.metrics.recordVerify(verifier.getContext().getName(), start, verification.getStatus(), fields.size(), 0);
+        return verification;
+    }
+
+    public List<HmacBatchResult<HmacUrlVerification>> validateUrls(String context, List<String> urls, Set<String> exceptedFields) {
+        HmacUrlVerifier verifier = getHmacUrlVerifier(context);
+        return HmacBatch.execute(this.batchPool, urls, this.config.getBatchChunkSize(),
+                (item, lease) -> verifyUrl(verifier, item, exceptedFields, lease, null));
     }
 
+    /**
+     * Returns a read only view of the query fields of a url, each field is url decoded when first looked at.
+     */
     public Map<String, Object> getUrlFields(String context, String url) throws HmacFieldException {
-        HmacUrl.HmacUrlBuilder builder = getBuilder(context);
-        return builder.build().getUrlFields(url);
+        return HmacUrlParser.index(url, this.getHmacContext(context).getCharset());
     }
 }
@@ -0,0 +1,192 @@
+package org.digitalmind.buildingblocks.security.hmac.api;
+
+import org.digitalmind.buildingblocks.security.hmac.core.HmacAlgorithm;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacContext;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacKey;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlStatus;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacUrlProperties;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import javax.crypto.Mac;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * A body with a bad signature fails its read before its last bytes are handed over, chunked or of known length.
+ */
+public class HmacBodyVerifyingRequestTest {
+    private static final int CHUNK_SIZE = 7;
+
+    private HmacKey key;
+    private byte[] body;
+    private byte[] signature;
+
+    @Before
+    public void setUp() throws Exception {
+        HmacContext context = new HmacContext(new HmacUrlProperties("body", true, "secret", HmacAlgorithm.HmacSHA256, "UTF-8"));
+        this.key = context.getSigningKey();
+        StringBuilder json = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < 20; i++) {
+            json.append((i > 0) ? "," : "").append(i);
+        }
+        this.body = json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+        Mac mac = this.key.acquireMac();
+        try {
+            this.signature = mac.doFinal(this.body);
+        } finally {
+            this.key.releaseMac(mac);
+        }
+    }
+
+    @Test
+    public void chunkedBodyIsVerifiedAtItsEnd() throws Exception {
+        HmacBodyVerifyingRequest request = new HmacBodyVerifyingRequest(chunked(this.body), this.key, this.signature);
+        assertArrayEquals(this.body, readAll(request.getInputStream(), 5));
+        assertEquals(HmacUrlStatus.VALID, request.getStatus());
+        assertEquals(HmacUrlStatus.VALID, request.drain());
+    }
+
+    @Test
+    public void chunkedForgedBodyFailsBeforeItsLastChunk() throws Exception {
+        byte[] forged = this.body.clone();
+        forged[forged.length - 3] = '8';
+        HmacBodyVerifyingRequest request = new HmacBodyVerifyingRequest(chunked(forged), this.key, this.signature);
+        ByteArrayOutputStream handedOver = new ByteArrayOutputStream();
+        assertForged(request.getInputStream(), handedOver, 5);
+        //the last chunk is held back until the end of the body is known
+        int lastChunk = (forged.length - 1) % CHUNK_SIZE + 1;
+        assertTrue(handedOver.size() <= forged.length - lastChunk);
+        assertEquals(HmacUrlStatus.INVALID_SIGNATURE, request.getStatus());
+        assertEquals(HmacUrlStatus.INVALID_SIGNATURE, request.drain());
+    }
+
+    @Test
+    public void chunkedForgedBodyFailsBeforeItsLastByteOnSingleReads() throws Exception {
+        byte[] forged = this.body.clone();
+        forged[0] = '[';
+        HmacBodyVerifyingRequest request = new HmacBodyVerifyingRequest(chunked(forged), this.key, this.signature);
+        ServletInputStream input = request.getInputStream();
+        int handedOver = 0;
+        try {
+            while (input.read() >= 0) {
+                handedOver++;
+            }
+            fail("Forged body read to its end");
+        } catch (HmacBodyVerifyingRequest.HmacBodySignatureException exception) {
+            //expected
+        }
+        assertTrue(handedOver < forged.length);
+        assertEquals(HmacUrlStatus.INVALID_SIGNATURE, request.getStatus());
+    }
+
+    @Test
+    public void forgedBodyOfKnownLengthFailsOnItsLastRead() throws Exception {
+        byte[] forged = this.body.clone();
+        forged[forged.length - 1] = ')';
+        MockHttpServletRequest delegate = new MockHttpServletRequest();
+        delegate.setContent(forged);
+        HmacBodyVerifyingRequest request = new HmacBodyVerifyingRequest(delegate, this.key, this.signature);
+        ByteArrayOutputStream handedOver = new ByteArrayOutputStream();
+        assertForged(request.getInputStream(), handedOver, 16);
+        assertTrue(handedOver.size() < forged.length);
+        assertEquals(HmacUrlStatus.INVALID_SIGNATURE, request.getStatus());
+    }
+
+    @Test
+    public void unreadBodyIsVerifiedByDrain() throws Exception {
+        HmacBodyVerifyingRequest request = new HmacBodyVerifyingRequest(chunked(this.body), this.key, this.signature);
+        assertNull(request.getStatus());
+        assertEquals(HmacUrlStatus.VALID, request.drain());
+
+        byte[] forged = this.body.clone();
+        forged[1] = 'x';
+        HmacBodyVerifyingRequest forgedRequest = new HmacBodyVerifyingRequest(chunked(forged), this.key, this.signature);
+        assertEquals(3, forgedRequest.getInputStream().read(new byte[3], 0, 3));
+        assertEquals(HmacUrlStatus.INVALID_SIGNATURE, forgedRequest.drain());
+        forgedRequest.close();
+    }
+
+    private static void assertForged(InputStream input, ByteArrayOutputStream handedOver, int bufferSize) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        try {
+            int read;
+            while ((read = input.read(buffer, 0, buffer.length)) >= 0) {
+                handedOver.write(buffer, 0, read);
+            }
+            fail("Forged body read to its end");
+        } catch (HmacBodyVerifyingRequest.HmacBodySignatureException exception) {
+            //expected
+        }
+    }
+
+    private static byte[] readAll(InputStream input, int bufferSize) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[bufferSize];
+        int read;
+        while ((read = input.read(buffer, 0, buffer.length)) >= 0) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A request without content length whose body arrives a few bytes at a time.
+     */
+    private static MockHttpServletRequest chunked(byte[] body) {
+        return new MockHttpServletRequest() {
+            @Override
+            public int getContentLength() {
+                return -1;
+            }
+
+            @Override
+            public long getContentLengthLong() {
+                return -1;
+            }
+
+            @Override
+            public ServletInputStream getInputStream() {
+                ByteArrayInputStream input = new ByteArrayInputStream(body);
+                return new ServletInputStream() {
+                    @Override
+                    public int read() {
+                        return input.read();
+                    }
+
+                    @Override
+                    public int read(byte[] bytes, int offset, int length) {
+                        return input.read(bytes, offset, Math.min(length, CHUNK_SIZE));
+                    }
+
+                    @Override
+                    public boolean isFinished() {
+                        return input.available() == 0;
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return true;
+                    }
+
+                    @Override
+                    public void setReadListener(ReadListener readListener) {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,149 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Compares the streamed canonical message with the URLEncoder query string it replaces.
+ */
+public class HmacCanonicalizerTest {
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private Mac mac;
+
+    @Before
+    public void setUp() throws Exception {
+        this.mac = Mac.getInstance(ALGORITHM);
+        this.mac.init(new SecretKeySpec("secret".getBytes(StandardCharsets.UTF_8), ALGORITHM));
+    }
+
+    @Test
+    public void asciiMatchesQueryString() throws Exception {
+        assertSameHash(StandardCharsets.UTF_8, fields("id", "12", "name", "a b+c/d*e~f.g_h-i"), "=", "&", null);
+    }
+
+    @Test
+    public void nonAsciiMatchesQueryString() throws Exception {
+        assertSameHash(StandardCharsets.UTF_8, fields("name", "Ștefan Öz", "city", "東京"), "=", "&", null);
+    }
+
+    @Test
+    public void pairedSurrogatesMatchQueryString() throws Exception {
+        assertSameHash(StandardCharsets.UTF_8, fields("emoji", "a😀b𝄞"), "=", "&", null);
+    }
+
+    @Test
+    public void unpairedSurrogatesMatchQueryString() throws Exception {
+        assertSameHash(StandardCharsets.UTF_8, fields("high", "a\uD83Db", "low", "a\uDE00b", "tail", "ab\uD83D"), "=", "&", null);
+    }
+
+    @Test
+    public void latin1ReplacementMatchesQueryString() throws Exception {
+        assertSameHash(StandardCharsets.ISO_8859_1, fields("name", "café €5 東京 😀 \uD83D"), "=", "&", null);
+    }
+
+    @Test
+    public void asciiReplacementMatchesQueryString() throws Exception {
+        assertSameHash(StandardCharsets.US_ASCII, fields("name", "café €5 東京 😀 \uDE00"), "=", "&", null);
+    }
+
+    @Test
+    public void multiCharacterDelimitersMatchQueryString() throws Exception {
+        assertSameHash(StandardCharsets.UTF_8, fields("a", "1", "b", "ü", "c", "3"), "::", "&&", null);
+        assertSameHash(StandardCharsets.UTF_8, fields("a", "1", "b", "ü"), "=", "§§", null);
+    }
+
+    @Test
+    public void emptyItemDelimiterMatchesQueryString() throws Exception {
+        assertSameHash(StandardCharsets.UTF_8, fields("a", "1", "b", "ü"), "=", "", null);
+    }
+
+    @Test
+    public void exceptedFieldsMatchQueryString() throws Exception {
+        Set<String> exceptedFields = Collections.singleton("hmac");
+        assertSameHash(StandardCharsets.UTF_8, fields("a", "1", "hmac", "x", "z", "ü"), "=", "&", exceptedFields);
+    }
+
+    @Test
+    public void planMatchesQueryString() throws Exception {
+        Charset charset = StandardCharsets.UTF_8;
+        Set<String> exceptedFields = Collections.singleton("hmac");
+        HmacCanonicalPlans plans = new HmacCanonicalPlans(charset, 4);
+        Map<String, Object> first = fields("a", "1", "hmac", "x", "name", "Ștefan", "z", "😀");
+        assertNull(plans.find(first, "=", "&", exceptedFields));
+        plans.admit(first, "=", "&", exceptedFields);
+        assertEquals(1, plans.getSize());
+
+        //same schema with other values, a value is encoded through the plan
+        Map<String, Object> second = fields("a", "2 3", "hmac", "y", "name", "東京", "z", "\uD83D");
+        HmacCanonicalPlans.Plan plan = plans.find(second, "=", "&", exceptedFields);
+        assertNotNull(plan);
+        HmacCanonicalizer.update(this.mac, second, charset, "=", "&", exceptedFields, plan);
+        byte[] actual = this.mac.doFinal();
+        assertArrayEquals(baseline(charset, second, "=", "&", exceptedFields), actual);
+    }
+
+    @Test
+    public void planIsOnlyUsedForItsSchema() throws Exception {
+        Charset charset = StandardCharsets.UTF_8;
+        HmacCanonicalPlans plans = new HmacCanonicalPlans(charset, 4);
+        plans.admit(fields("a", "1", "b", "2"), "=", "&", null);
+        assertNull(plans.find(fields("a", "1", "c", "2"), "=", "&", null));
+        assertNull(plans.find(fields("a", "1", "b", "2"), "=", "&&", null));
+        assertNull(plans.find(fields("a", "1", "b", "2"), "=", "&", Collections.singleton("b")));
+    }
+
+    @Test
+    public void signingPathAdmitsAndReusesPlan() throws Exception {
+        Charset charset = StandardCharsets.UTF_8;
+        HmacCanonicalPlans plans = new HmacCanonicalPlans(charset, 4);
+        Map<String, Object> fields = fields("b", "ö", "a", "1");
+        for (int i = 0; i < 3; i++) {
+            HmacCanonicalizer.update(this.mac, fields, charset, "=", "&", null, plans);
+            byte[] actual = this.mac.doFinal();
+            assertArrayEquals(baseline(charset, fields, "=", "&", null), actual);
+        }
+        assertEquals(1, plans.getSize());
+        assertEquals(2, plans.getHits());
+    }
+
+    private void assertSameHash(Charset charset,
+                                Map<String, Object> fields,
+                                String valueDelimiter,
+                                String itemDelimiter,
+                                Set<String> exceptedFields) throws Exception {
+        byte[] expected = baseline(charset, fields, valueDelimiter, itemDelimiter, exceptedFields);
+        assertArrayEquals(expected, Hmac.createRaw(this.mac, charset, fields, valueDelimiter, itemDelimiter, exceptedFields));
+    }
+
+    private byte[] baseline(Charset charset,
+                            Map<String, Object> fields,
+                            String valueDelimiter,
+                            String itemDelimiter,
+                            Set<String> exceptedFields) throws Exception {
+        String message = Hmac.toQueryString(fields, charset.name(), valueDelimiter, itemDelimiter, exceptedFields);
+        return this.mac.doFinal(message.getBytes(charset));
+    }
+
+    private static Map<String, Object> fields(String... namesAndValues) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            fields.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return fields;
+    }
+}
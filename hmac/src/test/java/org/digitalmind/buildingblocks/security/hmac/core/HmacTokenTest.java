@@ -0,0 +1,208 @@
+package org.digitalmind.buildingblocks.security.hmac.core;
+
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacUrlProperties;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Decoding of well formed and malformed tokens, a malformed token is only ever reported as a HmacFieldException.
+ */
+public class HmacTokenTest {
+    private static final int FLAG_KEY_ID = 1;
+    private static final int FLAG_TIMESTAMP = 2;
+    private static final int FLAG_TTL = 4;
+
+    private HmacContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        this.context = new HmacContext(new HmacUrlProperties("token", true, "secret", HmacAlgorithm.HmacSHA256, "UTF-8"));
+    }
+
+    @Test
+    public void createdTokenIsDecoded() throws Exception {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("id", "12");
+        fields.put("name", "Ștefan");
+        fields.put(HmacUrl.FIELD_HMAC_TIMESTAMP, "20200101000000");
+        fields.put(HmacUrl.FIELD_HMAC_TTL, 60L);
+        HmacToken token = HmacToken.decode(this.context, HmacToken.create(this.context, fields, null));
+        assertNull(token.getKeyId());
+        assertEquals(60L, token.getTimeToLive());
+        assertEquals(HmacTimestampCodec.getDefault().parse("20200101000000"), token.getTimestamp());
+        assertEquals("12", token.getFields().get("id"));
+        assertEquals("Ștefan", token.getFields().get("name"));
+        assertEquals(this.context.getMacLength(), token.getHmac().length);
+    }
+
+    @Test
+    public void handBuiltTokenIsDecoded() throws Exception {
+        Message message = new Message().version().flags(FLAG_KEY_ID | FLAG_TTL).string("k1").varint(120)
+                .varint(1).string("a").string("1");
+        HmacToken token = HmacToken.decode(this.context, message.token(this.context.getMacLength()));
+        assertEquals("k1", token.getKeyId());
+        assertEquals(60L, token.getTimeToLive());
+        assertEquals("1", token.getFields().get("a"));
+        assertEquals("k1", token.getFields().get(HmacUrl.FIELD_HMAC_KID));
+    }
+
+    @Test
+    public void notBase64UrlIsRejected() {
+        assertMalformed("not*base64");
+        assertMalformed("ab+/");
+        assertMalformed("a");
+    }
+
+    @Test
+    public void tokenShorterThanHmacIsRejected() {
+        assertMalformed("");
+        assertMalformed(Base64.getUrlEncoder().withoutPadding().encodeToString(new byte[this.context.getMacLength() - 1]));
+        assertMalformed(Base64.getUrlEncoder().withoutPadding().encodeToString(new byte[this.context.getMacLength()]));
+    }
+
+    @Test
+    public void unknownVersionIsRejected() {
+        assertMalformed(new Message().write(HmacToken.VERSION + 1).flags(0).varint(0).token(this.context.getMacLength()));
+    }
+
+    @Test
+    public void overlongVarintIsRejected() {
+        Message message = new Message().version().flags(FLAG_TTL);
+        for (int i = 0; i < 11; i++) {
+            message.write(0xFF);
+        }
+        assertMalformed(message.write(0x01).varint(0).token(this.context.getMacLength()));
+    }
+
+    @Test
+    public void stringPastTheMessageIsRejected() {
+        assertMalformed(new Message().version().flags(FLAG_KEY_ID).varint(200).write('k').varint(0).token(this.context.getMacLength()));
+        //a negative length once read as a long
+        assertMalformed(new Message().version().flags(FLAG_KEY_ID).varint(-1L).varint(0).token(this.context.getMacLength()));
+    }
+
+    @Test
+    public void fieldCountPastTheMessageIsRejected() {
+        assertMalformed(new Message().version().flags(0).varint(1000).string("a").string("1").token(this.context.getMacLength()));
+        assertMalformed(new Message().version().flags(0).varint(2).string("a").string("1").token(this.context.getMacLength()));
+    }
+
+    @Test
+    public void repeatedFieldIsRejected() {
+        assertMalformed(new Message().version().flags(0).varint(2)
+                .string("a").string("1").string("a").string("2").token(this.context.getMacLength()));
+    }
+
+    @Test
+    public void trailingBytesAreRejected() {
+        assertMalformed(new Message().version().flags(0).varint(0).write(0).token(this.context.getMacLength()));
+    }
+
+    @Test
+    public void timestampOutOfRangeIsRejected() {
+        assertMalformed(new Message().version().flags(FLAG_TIMESTAMP).varint(Long.MAX_VALUE - 1).varint(0).token(this.context.getMacLength()));
+    }
+
+    @Test
+    public void unsetTimeToLiveIsRejected() {
+        //the zigzag form of the -1 marker of a missing time to live
+        assertMalformed(new Message().version().flags(FLAG_TTL).varint(1).varint(0).token(this.context.getMacLength()));
+    }
+
+    @Test
+    public void truncatedAndAlteredTokensFailCleanly() throws Exception {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("id", "12");
+        fields.put("name", "value");
+        fields.put(HmacUrl.FIELD_HMAC_TTL, 60L);
+        byte[] bytes = Base64.getUrlDecoder().decode(HmacToken.create(this.context, fields, null));
+        for (int length = 0; length < bytes.length; length++) {
+            decodeOrFail(copyOf(bytes, length));
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            for (int b : new int[]{0x00, 0x7F, 0x80, 0xFF}) {
+                byte[] altered = copyOf(bytes, bytes.length);
+                altered[i] = (byte) b;
+                decodeOrFail(altered);
+            }
+        }
+    }
+
+    private void decodeOrFail(byte[] bytes) {
+        try {
+            HmacToken.decode(this.context, Base64.getUrlEncoder().withoutPadding().encodeToString(bytes));
+        } catch (HmacFieldException exception) {
+            //expected for most changes
+        } catch (RuntimeException exception) {
+            fail("Unexpected " + exception + " for a malformed token");
+        }
+    }
+
+    private void assertMalformed(String token) {
+        try {
+            HmacToken.decode(this.context, token);
+            fail("Malformed token accepted: " + token);
+        } catch (HmacFieldException exception) {
+            //expected
+        } catch (RuntimeException exception) {
+            fail("Unexpected " + exception + " for a malformed token");
+        }
+    }
+
+    private static byte[] copyOf(byte[] bytes, int length) {
+        byte[] copy = new byte[length];
+        System.arraycopy(bytes, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * Writes the message part of a token byte by byte, the hmac is left as zeros.
+     */
+    private static final class Message {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Message write(int value) {
+            this.bytes.write(value);
+            return this;
+        }
+
+        Message version() {
+            return write(HmacToken.VERSION);
+        }
+
+        Message flags(int flags) {
+            return write(flags);
+        }
+
+        Message varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            return write((int) value);
+        }
+
+        Message string(String value) {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            varint(encoded.length);
+            this.bytes.write(encoded, 0, encoded.length);
+            return this;
+        }
+
+        String token(int macLength) {
+            this.bytes.write(new byte[macLength], 0, macLength);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(this.bytes.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.digitalmind.buildingblocks.security.hmac.loadtest;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the duration of every collection notified by the JVM while the run is measured,
+ * the collection counts and times of the collectors are also kept as a fallback for JVMs without notifications.
+ */
+@Slf4j
+public class HmacGcMonitor implements NotificationListener, AutoCloseable {
+    private final Histogram pauses = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+    private final Map<String, long[]> start = new LinkedHashMap<>();
+    private final Map<String, long[]> collectors = new LinkedHashMap<>();
+    private boolean listening;
+
+    public synchronized void start() {
+        this.pauses.reset();
+        this.collectors.clear();
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            this.start.put(bean.getName(), new long[]{bean.getCollectionCount(), bean.getCollectionTime()});
+            if (!this.listening && bean instanceof NotificationEmitter) {
+                ((NotificationEmitter) bean).addNotificationListener(this, null, null);
+            }
+        }
+        this.listening = true;
+    }
+
+    /**
+     * Stops listening and computes the collections of each collector since the start, later calls do nothing.
+     */
+    @Override
+    public synchronized void close() {
+        if (!this.listening) {
+            return;
+        }
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            long[] before = this.start.getOrDefault(bean.getName(), new long[2]);
+            this.collectors.put(bean.getName(), new long[]{bean.getCollectionCount() - before[0], bean.getCollectionTime() - before[1]});
+            if (bean instanceof NotificationEmitter) {
+                try {
+                    ((NotificationEmitter) bean).removeNotificationListener(this);
+                } catch (ListenerNotFoundException exception) {
+                    log.debug("The gc listener of {} was already removed", bean.getName());
+                }
+            }
+        }
+        this.listening = false;
+    }
+
+    @Override
+    public synchronized void handleNotification(Notification notification, Object handback) {
+        if (!this.listening || !GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long durationMicros = TimeUnit.MILLISECONDS.toMicros(info.getGcInfo().getDuration());
+        this.pauses.recordValue(Math.min(durationMicros, this.pauses.getHighestTrackableValue()));
+    }
+
+    /**
+     * @return a copy of the collection durations in microseconds
+     */
+    public synchronized Histogram getPauses() {
+        return this.pauses.copy();
+    }
+
+    /**
+     * @return the collection count and time in milliseconds of each collector over the run
+     */
+    public synchronized Map<String, long[]> getCollectors() {
+        return new LinkedHashMap<>(this.collectors);
+    }
+}
@@ -0,0 +1,210 @@
+package org.digitalmind.buildingblocks.security.hmac.loadtest;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the workload from a fixed number of threads, virtual threads when asked for and supported by the JVM.
+ * With a target rate every thread follows its own schedule and the latency is measured from the planned start
+ * of an operation, so that a stalled service is not hidden by the threads waiting on it (coordinated omission).
+ * Each thread records into its own histograms, merged once the run is over.
+ */
+@Slf4j
+public class HmacLoadDriver {
+    private static final long HIGHEST_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final HmacLoadWorkload workload;
+    private final HmacLoadTestProperties properties;
+
+    public HmacLoadDriver(HmacLoadWorkload workload, HmacLoadTestProperties properties) {
+        this.workload = workload;
+        this.properties = properties;
+    }
+
+    /**
+     * Runs the warmup and the measured phase, the monitor is started with the measured phase.
+     */
+    public Result run(HmacGcMonitor gcMonitor) throws InterruptedException {
+        int threadCount = Math.max(this.properties.getThreads(), 1);
+        boolean virtual = this.properties.isVirtualThreads() && virtualThreadsSupported();
+        if (this.properties.isVirtualThreads() && !virtual) {
+            log.warn("Virtual threads are not supported by this JVM, platform threads are used");
+        }
+        //the planned interval of every thread, 0 to run unthrottled
+        long intervalNanos = (this.properties.getTargetRate() > 0)
+                ? Math.max(TimeUnit.SECONDS.toNanos(threadCount) / this.properties.getTargetRate(), 1)
+                : 0;
+        long startNanos = System.nanoTime();
+        long measureNanos = startNanos + TimeUnit.SECONDS.toNanos(Math.max(this.properties.getWarmupSeconds(), 0));
+        long endNanos = measureNanos + TimeUnit.SECONDS.toNanos(Math.max(this.properties.getDurationSeconds(), 1));
+        LongAdder failures = new LongAdder();
+        List<Worker> workers = new ArrayList<>(threadCount);
+        List<Thread> threads = new ArrayList<>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            //the schedules of the threads are spread over an interval
+            long offset = (intervalNanos > 0) ? intervalNanos * i / threadCount : 0;
+            Worker worker = new Worker(startNanos + offset, measureNanos, endNanos, intervalNanos, failures);
+            workers.add(worker);
+            threads.add(newThread(worker, "hmac-load-" + i, virtual));
+        }
+        log.info("Load test {}: {} {} threads, target rate {}/s, warmup {}s, duration {}s",
+                this.properties.getLabel(), threadCount, virtual ? "virtual" : "platform",
+                this.properties.getTargetRate(), this.properties.getWarmupSeconds(), this.properties.getDurationSeconds());
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long now = System.nanoTime();
+        if (measureNanos > now) {
+            TimeUnit.NANOSECONDS.sleep(measureNanos - now);
+        }
+        gcMonitor.start();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        gcMonitor.close();
+
+        Map<HmacLoadOperation, Histogram> latencies = new EnumMap<>(HmacLoadOperation.class);
+        Map<HmacLoadOperation, long[]> errors = new EnumMap<>(HmacLoadOperation.class);
+        for (HmacLoadOperation operation : HmacLoadOperation.values()) {
+            latencies.put(operation, new Histogram(HIGHEST_LATENCY_NANOS, 3));
+            errors.put(operation, new long[2]);
+        }
+        for (Worker worker : workers) {
+            for (HmacLoadOperation operation : HmacLoadOperation.values()) {
+                latencies.get(operation).add(worker.latencies[operation.ordinal()]);
+                errors.get(operation)[0] += worker.exceptions[operation.ordinal()];
+                errors.get(operation)[1] += worker.mismatches[operation.ordinal()];
+            }
+        }
+        return new Result(threadCount, virtual, endNanos - measureNanos, latencies, errors);
+    }
+
+    private static boolean virtualThreadsSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates a platform thread or, through reflection as the module targets Java 8, an unstarted virtual thread.
+     */
+    private static Thread newThread(Runnable task, String name, boolean virtual) {
+        if (!virtual) {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class).invoke(builder, name);
+            Method unstarted = builderType.getMethod("unstarted", Runnable.class);
+            return (Thread) unstarted.invoke(builder, task);
+        } catch (ReflectiveOperationException exception) {
+            throw new IllegalStateException("Unable to create a virtual thread", exception);
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final long firstNanos;
+        private final long measureNanos;
+        private final long endNanos;
+        private final long intervalNanos;
+        private final LongAdder failures;
+        private final Histogram[] latencies = new Histogram[HmacLoadOperation.values().length];
+        private final long[] exceptions = new long[HmacLoadOperation.values().length];
+        private final long[] mismatches = new long[HmacLoadOperation.values().length];
+
+        private Worker(long firstNanos, long measureNanos, long endNanos, long intervalNanos, LongAdder failures) {
+            this.firstNanos = firstNanos;
+            this.measureNanos = measureNanos;
+            this.endNanos = endNanos;
+            this.intervalNanos = intervalNanos;
+            this.failures = failures;
+            for (int i = 0; i < this.latencies.length; i++) {
+                this.latencies[i] = new Histogram(HIGHEST_LATENCY_NANOS, 3);
+            }
+        }
+
+        @Override
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long planned = this.firstNanos;
+            while (true) {
+                long start;
+                if (this.intervalNanos > 0) {
+                    long now = System.nanoTime();
+                    if (planned > now) {
+                        LockSupport.parkNanos(planned - now);
+                        continue;
+                    }
+                    start = planned;
+                    planned += this.intervalNanos;
+                } else {
+                    start = System.nanoTime();
+                }
+                if (start >= this.endNanos) {
+                    return;
+                }
+                HmacLoadOperation operation = workload.next(random);
+                boolean expected;
+                boolean failed = false;
+                try {
+                    expected = workload.execute(operation, random);
+                } catch (Exception exception) {
+                    expected = false;
+                    failed = true;
+                    if (this.failures.sum() == 0) {
+                        log.warn("{} failed: {}", operation, exception.getMessage());
+                    }
+                    this.failures.increment();
+                }
+                long end = System.nanoTime();
+                if (start >= this.measureNanos) {
+                    int index = operation.ordinal();
+                    this.latencies[index].recordValue(Math.min(end - start, HIGHEST_LATENCY_NANOS));
+                    if (failed) {
+                        this.exceptions[index]++;
+                    } else if (!expected) {
+                        this.mismatches[index]++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Outcome of a run, the latencies are in nanoseconds.
+     */
+    @Getter
+    public static final class Result {
+        private final int threads;
+        private final boolean virtualThreads;
+        private final long measuredNanos;
+        private final Map<HmacLoadOperation, Histogram> latencies;
+        //exceptions and unexpected outcomes of each operation
+        private final Map<HmacLoadOperation, long[]> errors;
+
+        private Result(int threads, boolean virtualThreads, long measuredNanos, Map<HmacLoadOperation, Histogram> latencies, Map<HmacLoadOperation, long[]> errors) {
+            this.threads = threads;
+            this.virtualThreads = virtualThreads;
+            this.measuredNanos = measuredNanos;
+            this.latencies = latencies;
+            this.errors = errors;
+        }
+    }
+}
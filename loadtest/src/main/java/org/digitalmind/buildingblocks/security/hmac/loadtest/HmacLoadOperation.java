@@ -0,0 +1,11 @@
+package org.digitalmind.buildingblocks.security.hmac.loadtest;
+
+/**
+ * Operations of the load mix.
+ */
+public enum HmacLoadOperation {
+    SIGN,
+    VALIDATE_VALID,
+    VALIDATE_FORGED,
+    VALIDATE_EXPIRED
+}
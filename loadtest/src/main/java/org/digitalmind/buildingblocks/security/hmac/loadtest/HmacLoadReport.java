@@ -0,0 +1,194 @@
+package org.digitalmind.buildingblocks.security.hmac.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON report of a run. Latencies are given in microseconds, with the compressed HdrHistogram of each
+ * operation so that any percentile can be computed again, and compared with the report of a previous build.
+ */
+@Slf4j
+public class HmacLoadReport {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private final ObjectMapper mapper;
+
+    public HmacLoadReport(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    public Map<String, Object> create(HmacLoadTestProperties properties, List<String> contexts, HmacLoadDriver.Result result, HmacGcMonitor gcMonitor) {
+        double seconds = result.getMeasuredNanos() / (double) TimeUnit.SECONDS.toNanos(1);
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("label", properties.getLabel());
+        report.put("createdAt", Instant.now().toString());
+        report.put("jvm", jvm());
+
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("contexts", contexts);
+        run.put("threads", result.getThreads());
+        run.put("virtualThreads", result.isVirtualThreads());
+        run.put("targetRate", properties.getTargetRate());
+        run.put("warmupSeconds", properties.getWarmupSeconds());
+        run.put("durationSeconds", seconds);
+        run.put("fieldCount", properties.getFieldCount());
+        run.put("valueLength", properties.getValueLength());
+        Map<String, Object> mix = new LinkedHashMap<>();
+        mix.put(HmacLoadOperation.SIGN.name(), properties.getSignWeight());
+        mix.put(HmacLoadOperation.VALIDATE_VALID.name(), properties.getValidWeight());
+        mix.put(HmacLoadOperation.VALIDATE_FORGED.name(), properties.getForgedWeight());
+        mix.put(HmacLoadOperation.VALIDATE_EXPIRED.name(), properties.getExpiredWeight());
+        run.put("mix", mix);
+        report.put("run", run);
+
+        Map<String, Object> operations = new LinkedHashMap<>();
+        Histogram total = new Histogram(TimeUnit.MINUTES.toNanos(1), 3);
+        long totalExceptions = 0;
+        long totalMismatches = 0;
+        for (Map.Entry<HmacLoadOperation, Histogram> entry : result.getLatencies().entrySet()) {
+            long[] errors = result.getErrors().get(entry.getKey());
+            operations.put(entry.getKey().name(), operation(entry.getValue(), errors[0], errors[1], seconds, true));
+            total.add(entry.getValue());
+            totalExceptions += errors[0];
+            totalMismatches += errors[1];
+        }
+        report.put("operations", operations);
+        report.put("total", operation(total, totalExceptions, totalMismatches, seconds, false));
+        report.put("gc", gc(gcMonitor, seconds));
+        return report;
+    }
+
+    public void write(Map<String, Object> report, Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.mapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), report);
+        log.info("Load test report written to {}", file.toAbsolutePath());
+    }
+
+    /**
+     * Logs the throughput and tail latency changes of each operation against the report of a previous run.
+     */
+    public void compare(Map<String, Object> report, Path baselineFile) throws IOException {
+        JsonNode baseline = this.mapper.readTree(baselineFile.toFile());
+        JsonNode current = this.mapper.valueToTree(report);
+        log.info("Compared with {} ({})", baseline.path("label").asText(), baselineFile);
+        compare("TOTAL", baseline.path("total"), current.path("total"));
+        current.path("operations").fieldNames().forEachRemaining(
+                name -> compare(name, baseline.path("operations").path(name), current.path("operations").path(name)));
+        log.info(String.format("%-18s gc %.1f -> %.1f ms/s", "",
+                baseline.path("gc").path("millisPerSecond").asDouble(), current.path("gc").path("millisPerSecond").asDouble()));
+    }
+
+    private static void compare(String name, JsonNode baseline, JsonNode current) {
+        if (baseline.isMissingNode() || baseline.path("count").asLong() == 0) {
+            return;
+        }
+        log.info(String.format("%-18s throughput %10.0f -> %10.0f/s (%+.1f%%)  p99 %9.1f -> %9.1f us (%+.1f%%)  p99.9 %9.1f -> %9.1f us (%+.1f%%)",
+                name,
+                baseline.path("throughput").asDouble(), current.path("throughput").asDouble(),
+                change(baseline.path("throughput").asDouble(), current.path("throughput").asDouble()),
+                baseline.path("latency").path("p99").asDouble(), current.path("latency").path("p99").asDouble(),
+                change(baseline.path("latency").path("p99").asDouble(), current.path("latency").path("p99").asDouble()),
+                baseline.path("latency").path("p99.9").asDouble(), current.path("latency").path("p99.9").asDouble(),
+                change(baseline.path("latency").path("p99.9").asDouble(), current.path("latency").path("p99.9").asDouble())));
+    }
+
+    private static double change(double before, double after) {
+        return (before == 0) ? 0 : (after - before) * 100 / before;
+    }
+
+    private static Map<String, Object> operation(Histogram histogram, long exceptions, long mismatches, double seconds, boolean withHistogram) {
+        Map<String, Object> operation = new LinkedHashMap<>();
+        operation.put("count", histogram.getTotalCount());
+        operation.put("throughput", histogram.getTotalCount() / seconds);
+        operation.put("exceptions", exceptions);
+        operation.put("unexpectedOutcomes", mismatches);
+        Map<String, Object> latency = new LinkedHashMap<>();
+        if (histogram.getTotalCount() > 0) {
+            latency.put("min", micros(histogram.getMinValue()));
+            latency.put("mean", histogram.getMean() / 1000);
+            for (double percentile : PERCENTILES) {
+                latency.put("p" + format(percentile), micros(histogram.getValueAtPercentile(percentile)));
+            }
+            latency.put("max", micros(histogram.getMaxValue()));
+        }
+        operation.put("latency", latency);
+        if (withHistogram) {
+            operation.put("histogram", encode(histogram));
+        }
+        return operation;
+    }
+
+    private static Map<String, Object> gc(HmacGcMonitor gcMonitor, double seconds) {
+        Map<String, Object> gc = new LinkedHashMap<>();
+        Map<String, Object> collectors = new LinkedHashMap<>();
+        long count = 0;
+        long millis = 0;
+        for (Map.Entry<String, long[]> entry : gcMonitor.getCollectors().entrySet()) {
+            Map<String, Object> collector = new LinkedHashMap<>();
+            collector.put("count", entry.getValue()[0]);
+            collector.put("millis", entry.getValue()[1]);
+            collectors.put(entry.getKey(), collector);
+            count += entry.getValue()[0];
+            millis += entry.getValue()[1];
+        }
+        gc.put("count", count);
+        gc.put("millis", millis);
+        gc.put("millisPerSecond", millis / seconds);
+        Histogram pauses = gcMonitor.getPauses();
+        Map<String, Object> durations = new LinkedHashMap<>();
+        if (pauses.getTotalCount() > 0) {
+            durations.put("count", pauses.getTotalCount());
+            durations.put("p50", pauses.getValueAtPercentile(50) / 1000.0);
+            durations.put("p99", pauses.getValueAtPercentile(99) / 1000.0);
+            durations.put("max", pauses.getMaxValue() / 1000.0);
+        }
+        //durations of the notified collections in milliseconds
+        gc.put("durations", durations);
+        gc.put("collectors", collectors);
+        return gc;
+    }
+
+    private static Map<String, Object> jvm() {
+        Map<String, Object> jvm = new LinkedHashMap<>();
+        jvm.put("version", System.getProperty("java.version"));
+        jvm.put("vendor", System.getProperty("java.vendor"));
+        jvm.put("arguments", ManagementFactory.getRuntimeMXBean().getInputArguments());
+        jvm.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        jvm.put("maxMemory", Runtime.getRuntime().maxMemory());
+        return jvm;
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    private static String format(double percentile) {
+        return (percentile == Math.rint(percentile)) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+
+    private static String encode(Histogram histogram) {
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        byte[] bytes = new byte[length];
+        buffer.flip();
+        buffer.get(bytes);
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,23 @@
+package org.digitalmind.buildingblocks.security.hmac.loadtest;
+
+import org.digitalmind.buildingblocks.security.hmac.config.HmacModuleConfig;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Import;
+
+/**
+ * Boots the hmac module through {@link HmacModuleConfig} with the contexts of application.yml, runs the load test and exits.
+ * The module brings jpa to the classpath, no datasource is configured for the load test.
+ */
+@SpringBootApplication(exclude = {DataSourceAutoConfiguration.class, HibernateJpaAutoConfiguration.class})
+@Import(HmacModuleConfig.class)
+@EnableConfigurationProperties(HmacLoadTestProperties.class)
+public class HmacLoadTestApplication {
+
+    public static void main(String[] args) {
+        System.exit(SpringApplication.exit(SpringApplication.run(HmacLoadTestApplication.class, args)));
+    }
+}
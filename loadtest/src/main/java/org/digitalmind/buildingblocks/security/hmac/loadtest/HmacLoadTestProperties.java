@@ -0,0 +1,34 @@
+package org.digitalmind.buildingblocks.security.hmac.loadtest;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of a load test run, the operation weights need not add up to 100.
+ */
+@ConfigurationProperties(prefix = "loadtest")
+@Getter
+@Setter
+public class HmacLoadTestProperties {
+    private String label = "local";
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean virtualThreads;
+    //operations per second over all threads, 0 to run as fast as the threads can
+    private long targetRate;
+    private int warmupSeconds = 10;
+    private int durationSeconds = 30;
+    private int signWeight = 20;
+    private int validWeight = 60;
+    private int forgedWeight = 10;
+    private int expiredWeight = 10;
+    private int fieldCount = 10;
+    private int valueLength = 32;
+    //distinct urls signed per context and kind before the run
+    private int urlCount = 1024;
+    private String base = "https://downloads.example.com/files";
+    private String fragment = "content";
+    private String report = "build/reports/loadtest/loadtest.json";
+    //report of a previous run compared with this one, if any
+    private String baseline;
+}
@@ -0,0 +1,58 @@
+package org.digitalmind.buildingblocks.security.hmac.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.digitalmind.buildingblocks.security.hmac.config.HmacConfig;
+import org.digitalmind.buildingblocks.security.hmac.dto.HmacUrlProperties;
+import org.digitalmind.buildingblocks.security.hmac.service.HmacService;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Component
+public class HmacLoadTestRunner implements ApplicationRunner {
+    private final HmacService hmacService;
+    private final HmacConfig hmacConfig;
+    private final HmacLoadTestProperties properties;
+    private final ObjectMapper mapper;
+
+    public HmacLoadTestRunner(HmacService hmacService, HmacConfig hmacConfig, HmacLoadTestProperties properties, ObjectMapper mapper) {
+        this.hmacService = hmacService;
+        this.hmacConfig = hmacConfig;
+        this.properties = properties;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        List<String> contexts = this.hmacConfig.getConfig().stream()
+                .filter(HmacUrlProperties::isEnabled)
+                .map(HmacUrlProperties::getName)
+                .collect(Collectors.toList());
+        if (contexts.isEmpty()) {
+            throw new IllegalStateException("No hmac context is enabled");
+        }
+        HmacLoadWorkload workload = new HmacLoadWorkload(this.hmacService, this.properties, contexts);
+        HmacLoadDriver.Result result;
+        try (HmacGcMonitor gcMonitor = new HmacGcMonitor()) {
+            result = new HmacLoadDriver(workload, this.properties).run(gcMonitor);
+            HmacLoadReport reporter = new HmacLoadReport(this.mapper);
+            Map<String, Object> report = reporter.create(this.properties, contexts, result, gcMonitor);
+            reporter.write(report, Paths.get(this.properties.getReport()));
+            if (this.properties.getBaseline() != null && !this.properties.getBaseline().isEmpty()) {
+                reporter.compare(report, Paths.get(this.properties.getBaseline()));
+            }
+        }
+        result.getErrors().forEach((operation, errors) -> {
+            if (errors[0] > 0 || errors[1] > 0) {
+                log.warn("{}: {} exceptions, {} unexpected outcomes", operation, errors[0], errors[1]);
+            }
+        });
+    }
+}
@@ -0,0 +1,155 @@
+package org.digitalmind.buildingblocks.security.hmac.loadtest;
+
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrl;
+import org.digitalmind.buildingblocks.security.hmac.core.HmacUrlStatus;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacFieldException;
+import org.digitalmind.buildingblocks.security.hmac.exception.HmacSignExcception;
+import org.digitalmind.buildingblocks.security.hmac.service.HmacService;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The urls and fields driven against the service, signed once per context before the run.
+ * Forged urls have a character of their hmac changed, expired urls were signed two days ago with a one day ttl.
+ */
+public class HmacLoadWorkload {
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 -_.*/:&=";
+
+    private final HmacService service;
+    private final HmacLoadTestProperties properties;
+    private final String[] contexts;
+    private final Map<String, Object>[] signFields;
+    private final String[][] validUrls;
+    private final String[][] forgedUrls;
+    private final String[][] expiredUrls;
+    private final HmacLoadOperation[] mix;
+
+    @SuppressWarnings("unchecked")
+    public HmacLoadWorkload(HmacService service, HmacLoadTestProperties properties, List<String> contexts) throws HmacFieldException, HmacSignExcception {
+        this.service = service;
+        this.properties = properties;
+        this.contexts = contexts.toArray(new String[0]);
+        this.signFields = new Map[this.contexts.length];
+        this.validUrls = new String[this.contexts.length][];
+        this.forgedUrls = new String[this.contexts.length][];
+        this.expiredUrls = new String[this.contexts.length][];
+        Random random = new Random(properties.getFieldCount() * 31L + properties.getValueLength());
+        long now = System.currentTimeMillis();
+        for (int c = 0; c < this.contexts.length; c++) {
+            this.signFields[c] = Collections.unmodifiableMap(fields(random, new Date(now), HmacUrl.FIELD_HMAC_TTL_1DAY));
+            int count = Math.max(properties.getUrlCount(), 1);
+            this.validUrls[c] = new String[count];
+            this.forgedUrls[c] = new String[count];
+            this.expiredUrls[c] = new String[count];
+            for (int i = 0; i < count; i++) {
+                this.validUrls[c][i] = sign(this.contexts[c], fields(random, new Date(now), HmacUrl.FIELD_HMAC_TTL_1DAY));
+                this.forgedUrls[c][i] = forge(sign(this.contexts[c], fields(random, new Date(now), HmacUrl.FIELD_HMAC_TTL_1DAY)));
+                this.expiredUrls[c][i] = sign(this.contexts[c], fields(random, new Date(now - TimeUnit.DAYS.toMillis(2)), HmacUrl.FIELD_HMAC_TTL_1DAY));
+            }
+        }
+        this.mix = mix(properties);
+    }
+
+    /**
+     * Picks the next operation according to the weights of the mix.
+     */
+    public HmacLoadOperation next(ThreadLocalRandom random) {
+        return this.mix[random.nextInt(this.mix.length)];
+    }
+
+    /**
+     * Runs an operation against a random context.
+     *
+     * @return true when the service gave the expected outcome
+     */
+    public boolean execute(HmacLoadOperation operation, ThreadLocalRandom random) throws HmacFieldException, HmacSignExcception {
+        int c = random.nextInt(this.contexts.length);
+        String context = this.contexts[c];
+        switch (operation) {
+            case SIGN:
+                return this.service.calculateUrl(context, this.signFields[c], null, this.properties.getBase(), this.properties.getFragment()) != null;
+            case VALIDATE_VALID:
+                return this.service.verifyUrl(context, pick(this.validUrls[c], random), null).isValid();
+            case VALIDATE_FORGED:
+                return this.service.verifyUrl(context, pick(this.forgedUrls[c], random), null).getStatus() == HmacUrlStatus.INVALID_SIGNATURE;
+            case VALIDATE_EXPIRED:
+                return this.service.verifyUrl(context, pick(this.expiredUrls[c], random), null).getStatus() == HmacUrlStatus.EXPIRED;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private String sign(String context, Map<String, Object> fields) throws HmacFieldException, HmacSignExcception {
+        return this.service.calculateUrl(context, fields, null, this.properties.getBase(), this.properties.getFragment());
+    }
+
+    private Map<String, Object> fields(Random random, Date timestamp, long timeToLive) {
+        Map<String, Object> fields = new HashMap<>();
+        for (int i = 0; i < this.properties.getFieldCount(); i++) {
+            StringBuilder value = new StringBuilder(this.properties.getValueLength());
+            for (int j = 0; j < this.properties.getValueLength(); j++) {
+                value.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            fields.put("field-" + i, value.toString());
+        }
+        fields.put(HmacUrl.FIELD_HMAC_TIMESTAMP, timestamp);
+        fields.put(HmacUrl.FIELD_HMAC_TTL, timeToLive);
+        return fields;
+    }
+
+    /**
+     * Changes the first alphanumeric character of the hmac, the url still parses but no longer matches its signature.
+     */
+    private static String forge(String url) {
+        int start = url.indexOf("&" + HmacUrl.FIELD_HMAC + "=");
+        if (start < 0) {
+            start = url.indexOf("?" + HmacUrl.FIELD_HMAC + "=");
+        }
+        if (start < 0) {
+            throw new IllegalStateException("No hmac in the signed url " + url);
+        }
+        char[] chars = url.toCharArray();
+        for (int i = start + HmacUrl.FIELD_HMAC.length() + 2; i < chars.length && chars[i] != '&' && chars[i] != '#'; i++) {
+            if (Character.isLetterOrDigit(chars[i])) {
+                chars[i] = (chars[i] == 'A') ? 'B' : 'A';
+                return new String(chars);
+            }
+        }
+        throw new IllegalStateException("Unable to forge the signed url " + url);
+    }
+
+    private static String pick(String[] urls, ThreadLocalRandom random) {
+        return urls[random.nextInt(urls.length)];
+    }
+
+    private static HmacLoadOperation[] mix(HmacLoadTestProperties properties) {
+        int[] weights = {
+                Math.max(properties.getSignWeight(), 0),
+                Math.max(properties.getValidWeight(), 0),
+                Math.max(properties.getForgedWeight(), 0),
+                Math.max(properties.getExpiredWeight(), 0)
+        };
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("The load mix has no operation");
+        }
+        HmacLoadOperation[] mix = new HmacLoadOperation[total];
+        int position = 0;
+        for (HmacLoadOperation operation : HmacLoadOperation.values()) {
+            for (int i = 0; i < weights[operation.ordinal()]; i++) {
+                mix[position++] = operation;
+            }
+        }
+        return mix;
+    }
+}